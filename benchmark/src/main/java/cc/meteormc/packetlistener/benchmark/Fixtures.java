@@ -0,0 +1,109 @@
+package cc.meteormc.packetlistener.benchmark;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.command.SimpleCommandMap;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.RegisteredListener;
+import org.bukkit.plugin.SimplePluginManager;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Minimal Bukkit environment for running the interception code without a server.
+ * <p>
+ * The server and the plugin are proxies answering the few calls made on the hot path,
+ * while the plugin manager is the real {@link SimplePluginManager}, so Bukkit event dispatch is measured as it is on a server.
+ *
+ * @author Meteor23333
+ */
+public final class Fixtures {
+    private static final Logger LOGGER = Logger.getLogger("PacketListener-Benchmark");
+
+    /**
+     * Written by handlers so that their work cannot be eliminated by the JIT.
+     */
+    public static volatile Object sink;
+
+    private static PluginManager pluginManager;
+    private static Plugin plugin;
+
+    /**
+     * Installs the Bukkit environment once and gets the plugin owning the benchmark handlers.
+     *
+     * @return the plugin
+     */
+    public static synchronized @NotNull Plugin plugin() {
+        if (plugin == null) {
+            Server server = proxy(Server.class);
+            pluginManager = new SimplePluginManager(server, new SimpleCommandMap(server));
+            Bukkit.setServer(server);
+            plugin = proxy(Plugin.class);
+        }
+        return plugin;
+    }
+
+    /**
+     * Registers a Bukkit listener for an event, bypassing the annotation scanning of {@code registerEvents}.
+     *
+     * @param handlers the handler list of the event
+     * @param handler the listener body
+     */
+    public static void registerListener(@NotNull HandlerList handlers, @NotNull Consumer<Event> handler) {
+        Listener listener = new Listener() {
+        };
+        handlers.register(new RegisteredListener(listener, (l, event) -> handler.accept(event), EventPriority.NORMAL, plugin(), false));
+    }
+
+    /**
+     * Creates a proxy answering with fixed values, or the default value of the return type.
+     *
+     * @param type the interface to implement
+     * @param <T> the interface
+     * @return the proxy
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> @NotNull T proxy(@NotNull Class<T> type) {
+        return (T) Proxy.newProxyInstance(Fixtures.class.getClassLoader(), new Class<?>[]{type}, Fixtures::answer);
+    }
+
+    private static Object answer(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "getLogger":
+                return LOGGER;
+            case "getName":
+            case "getVersion":
+            case "getBukkitVersion":
+            case "toString":
+                return "Benchmark";
+            case "getPluginManager":
+                return pluginManager;
+            case "isEnabled":
+                return true;
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+        }
+
+        Class<?> returnType = method.getReturnType();
+        return returnType.isPrimitive() && returnType != void.class ? Array.get(Array.newInstance(returnType, 1), 0) : null;
+    }
+
+    /**
+     * This class cannot be instantiated!
+     */
+    private Fixtures() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+}
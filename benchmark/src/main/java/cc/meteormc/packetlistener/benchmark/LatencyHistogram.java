@@ -0,0 +1,96 @@
+package cc.meteormc.packetlistener.benchmark;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A log-linear histogram of latencies with {@code 16} sub-buckets per power of two, accurate to about 6%.
+ * <p>
+ * Every recording thread writes to its own array, so event loops never contend.
+ * Snapshots sum the arrays without synchronization and are meant to be subtracted from each other.
+ *
+ * @author Meteor23333
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKETS = 16;
+    private static final int SUB_BITS = 4;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final Queue<long[]> arrays = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<long[]> local = ThreadLocal.withInitial(() -> {
+        long[] array = new long[BUCKETS];
+        arrays.add(array);
+        return array;
+    });
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        local.get()[index(nanos)]++;
+    }
+
+    /**
+     * Sums the counts of all threads.
+     *
+     * @return the counts per bucket
+     */
+    public long[] snapshot() {
+        long[] sum = new long[BUCKETS];
+        for (long[] array : arrays) {
+            for (int i = 0; i < BUCKETS; i++) {
+                sum[i] += array[i];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Counts the recorded latencies between two snapshots.
+     *
+     * @param start the earlier snapshot
+     * @param end the later snapshot
+     * @return the number of latencies
+     */
+    public static long count(long[] start, long[] end) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += end[i] - start[i];
+        }
+        return count;
+    }
+
+    /**
+     * Estimates a percentile of the latencies recorded between two snapshots.
+     *
+     * @param start the earlier snapshot
+     * @param end the later snapshot
+     * @param percentile the percentile, between {@code 0} and {@code 100}
+     * @return the upper bound of the bucket containing the percentile in nanoseconds
+     */
+    public static long percentile(long[] start, long[] end, double percentile) {
+        long rank = (long) Math.ceil(count(start, end) * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += end[i] - start[i];
+            if (seen >= rank && seen != 0) return upperBound(i);
+        }
+        return 0;
+    }
+
+    private static int index(long nanos) {
+        if (nanos < SUB_BUCKETS) return (int) Math.max(0, nanos);
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponent - SUB_BITS)) - SUB_BUCKETS;
+        return SUB_BUCKETS + (exponent - SUB_BITS) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BITS;
+        int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+}
@@ -0,0 +1,334 @@
+package cc.meteormc.packetlistener.benchmark;
+
+import cc.meteormc.packetlistener.PacketListener;
+import cc.meteormc.packetlistener.event.PacketEvent;
+import cc.meteormc.packetlistener.event.PacketInboundEvent;
+import cc.meteormc.packetlistener.event.PacketOutboundEvent;
+import cc.meteormc.packetlistener.internal.NettyPipelineInjector;
+import cc.meteormc.packetlistener.objects.PacketDirection;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.*;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.util.ReferenceCountUtil;
+import net.minecraft.network.protocol.game.ClientboundSetEntityMotionPacket;
+import net.minecraft.network.protocol.game.ServerboundMovePlayerPacket;
+import org.bukkit.event.EventPriority;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Offline load simulation: many synthetic connections pumping a realistic packet mix through injected pipelines.
+ * <p>
+ * Clients and server run on the local transport, each side on its own {@link DefaultEventLoopGroup}.
+ * Every tick (50 ms), each client sends its movement packets, sometimes an arm swing and rarely a chat message,
+ * and the server answers each movement with an entity motion packet.
+ * <p>
+ * Latencies are measured from the first handler of the server pipeline to the packet handler for inbound packets,
+ * and back for outbound packets, so they include the synthetic codec.
+ * Run once with {@code --no-inject} to get the baseline, the difference is the latency added by the interceptors.
+ * <p>
+ * Options: {@code --connections 500 --threads <cores> --warmup 10 --duration 30 --moves-per-tick 2
+ * --listeners NONE|NATIVE|BUKKIT --event-reuse --no-inject}
+ *
+ * @author Meteor23333
+ */
+public final class LoadSimulation {
+    private static final long TICK_MILLIS = 50;
+
+    private final LatencyHistogram inbound = new LatencyHistogram();
+    private final LatencyHistogram outbound = new LatencyHistogram();
+    private final Set<Long> serverThreads = ConcurrentHashMap.newKeySet();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        new LoadSimulation().run(
+                intOption(options, "connections", 500),
+                intOption(options, "threads", Runtime.getRuntime().availableProcessors()),
+                intOption(options, "warmup", 10),
+                intOption(options, "duration", 30),
+                intOption(options, "moves-per-tick", 2),
+                options.getOrDefault("listeners", "NONE").toUpperCase(Locale.ROOT),
+                options.containsKey("event-reuse"),
+                !options.containsKey("no-inject")
+        );
+    }
+
+    /**
+     * Runs the simulation and prints the report.
+     *
+     * @param connections the number of connections
+     * @param threads the number of server event loop threads
+     * @param warmup the warmup time in seconds
+     * @param duration the measurement time in seconds
+     * @param movesPerTick the number of movement packets per connection and tick
+     * @param listeners who listens to the packets: nobody, a native handler, or a Bukkit listener
+     * @param eventReuse true to reuse events
+     * @param inject false to measure the pipeline without the interceptors
+     * @throws Exception thrown if the channels cannot be set up
+     */
+    private void run(int connections, int threads, int warmup, int duration, int movesPerTick, String listeners, boolean eventReuse, boolean inject) throws Exception {
+        Plugin plugin = Fixtures.plugin();
+        PacketListener.setEventReuse(eventReuse);
+        switch (listeners) {
+            case "NATIVE":
+                PacketListener.subscribe(plugin, PacketDirection.SERVERBOUND, null, null, EventPriority.NORMAL, false, event -> Fixtures.sink = event.getPacket());
+                PacketListener.subscribe(plugin, PacketDirection.CLIENTBOUND, null, null, EventPriority.NORMAL, false, event -> Fixtures.sink = event.getPacket());
+                break;
+            case "BUKKIT":
+                Fixtures.registerListener(PacketInboundEvent.getHandlerList(), event -> Fixtures.sink = ((PacketEvent) event).getPacket());
+                Fixtures.registerListener(PacketOutboundEvent.getHandlerList(), event -> Fixtures.sink = ((PacketEvent) event).getPacket());
+                break;
+            case "NONE":
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown listeners: " + listeners);
+        }
+
+        EventLoopGroup serverGroup = new DefaultEventLoopGroup(threads);
+        EventLoopGroup clientGroup = new DefaultEventLoopGroup(Math.max(1, threads / 2));
+        LocalAddress address = new LocalAddress("packetlistener-load-simulation");
+        try {
+            Channel server = new ServerBootstrap()
+                    .group(serverGroup)
+                    .channel(LocalServerChannel.class)
+                    .childHandler(new ChannelInitializer<LocalChannel>() {
+                        @Override
+                        protected void initChannel(LocalChannel channel) {
+                            Timestamps timestamps = new Timestamps();
+                            channel.pipeline()
+                                    .addLast("timer", new TimerHandler(timestamps))
+                                    .addLast("decoder", new SyntheticCodec.Decoder())
+                                    .addLast("encoder", new SyntheticCodec.Encoder())
+                                    .addLast("packet_handler", new SimulatedPacketHandler(timestamps));
+                            if (inject) new NettyPipelineInjector(channel.pipeline());
+                        }
+                    })
+                    .bind(address).sync().channel();
+
+            Bootstrap client = new Bootstrap()
+                    .group(clientGroup)
+                    .channel(LocalChannel.class)
+                    .handler(new ChannelInboundHandlerAdapter() {
+                        @Override
+                        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                            ReferenceCountUtil.release(msg);
+                        }
+                    });
+            List<Channel> clients = new ArrayList<>(connections);
+            for (int i = 0; i < connections; i++) {
+                Channel channel = client.connect(address).sync().channel();
+                clients.add(channel);
+                channel.eventLoop().scheduleAtFixedRate(
+                        () -> sendTick(channel, movesPerTick),
+                        ThreadLocalRandom.current().nextLong(TICK_MILLIS), TICK_MILLIS, TimeUnit.MILLISECONDS
+                );
+            }
+
+            System.out.printf(
+                    "connections=%d threads=%d moves-per-tick=%d listeners=%s event-reuse=%s inject=%s%n",
+                    connections, threads, movesPerTick, listeners, eventReuse, inject
+            );
+            System.out.printf("Warming up for %d s...%n", warmup);
+            TimeUnit.SECONDS.sleep(warmup);
+
+            long[] inboundStart = inbound.snapshot();
+            long[] outboundStart = outbound.snapshot();
+            Map<Long, Long> allocatedStart = allocatedBytes();
+            long start = System.nanoTime();
+            System.out.printf("Measuring for %d s...%n", duration);
+            TimeUnit.SECONDS.sleep(duration);
+            long[] inboundEnd = inbound.snapshot();
+            long[] outboundEnd = outbound.snapshot();
+            Map<Long, Long> allocatedEnd = allocatedBytes();
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            report("inbound", inboundStart, inboundEnd, seconds);
+            report("outbound", outboundStart, outboundEnd, seconds);
+
+            long allocated = 0;
+            for (Map.Entry<Long, Long> entry : allocatedEnd.entrySet()) {
+                allocated += entry.getValue() - allocatedStart.getOrDefault(entry.getKey(), 0L);
+            }
+            long packets = LatencyHistogram.count(inboundStart, inboundEnd) + LatencyHistogram.count(outboundStart, outboundEnd);
+            System.out.printf(
+                    "allocation: %.1f MB/s on the server event loops, %d bytes per packet%n",
+                    allocated / seconds / (1024 * 1024), packets == 0 ? 0 : allocated / packets
+            );
+
+            for (Channel channel : clients) {
+                channel.close();
+            }
+            server.close().sync();
+        } finally {
+            clientGroup.shutdownGracefully().sync();
+            serverGroup.shutdownGracefully().sync();
+            PacketListener.unsubscribeAll(plugin);
+        }
+    }
+
+    /**
+     * Sends the packets of one tick of a client.
+     *
+     * @param channel the client channel
+     * @param movesPerTick the number of movement packets
+     */
+    private static void sendTick(@NotNull Channel channel, int movesPerTick) {
+        if (!channel.isActive()) return;
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < movesPerTick; i++) {
+            ByteBuf buf = channel.alloc().buffer(48);
+            SyntheticCodec.writeMovePlayer(buf);
+            channel.write(buf, channel.voidPromise());
+        }
+        if (random.nextInt(5) == 0) {
+            ByteBuf buf = channel.alloc().buffer(2);
+            SyntheticCodec.writeSwing(buf);
+            channel.write(buf, channel.voidPromise());
+        }
+        if (random.nextInt(100) == 0) {
+            ByteBuf buf = channel.alloc().buffer(64);
+            SyntheticCodec.writeChat(buf);
+            channel.write(buf, channel.voidPromise());
+        }
+        channel.flush();
+    }
+
+    /**
+     * Prints the throughput and latency of one direction.
+     *
+     * @param direction the direction name
+     * @param start the histogram snapshot at the start
+     * @param end the histogram snapshot at the end
+     * @param seconds the measurement time
+     */
+    private static void report(String direction, long[] start, long[] end, double seconds) {
+        System.out.printf(
+                "%s: %.0f packets/s, latency p50=%.1f us p99=%.1f us p99.9=%.1f us%n",
+                direction,
+                LatencyHistogram.count(start, end) / seconds,
+                LatencyHistogram.percentile(start, end, 50) / 1e3,
+                LatencyHistogram.percentile(start, end, 99) / 1e3,
+                LatencyHistogram.percentile(start, end, 99.9) / 1e3
+        );
+    }
+
+    /**
+     * Reads the number of bytes allocated so far by each server event loop thread.
+     *
+     * @return the allocated bytes by thread id, empty if the JVM cannot measure them
+     */
+    private Map<Long, Long> allocatedBytes() {
+        Map<Long, Long> allocated = new HashMap<>();
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return allocated;
+
+        for (long id : serverThreads) {
+            long bytes = ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(id);
+            if (bytes >= 0) allocated.put(id, bytes);
+        }
+        return allocated;
+    }
+
+    /**
+     * Parses {@code --key value} and {@code --flag} arguments.
+     *
+     * @param args the arguments
+     * @return the options
+     */
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            String key = args[i].substring(2);
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(key, args[++i]);
+            } else {
+                options.put(key, "true");
+            }
+        }
+        return options;
+    }
+
+    private static int intOption(Map<String, String> options, String key, int defaultValue) {
+        String value = options.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    /**
+     * When the packet being handled by a connection entered and left the pipeline.
+     * Only touched on the event loop of the connection.
+     */
+    private static class Timestamps {
+        private long readAt;
+        private long writeAt;
+    }
+
+    /**
+     * The first handler of the server pipeline, timing inbound frames in and outbound frames out.
+     */
+    private class TimerHandler extends ChannelDuplexHandler {
+        private final Timestamps timestamps;
+
+        private TimerHandler(Timestamps timestamps) {
+            this.timestamps = timestamps;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            timestamps.readAt = System.nanoTime();
+            super.channelRead(ctx, msg);
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (timestamps.writeAt != 0) {
+                outbound.record(System.nanoTime() - timestamps.writeAt);
+                timestamps.writeAt = 0;
+            }
+            super.write(ctx, msg, promise);
+        }
+    }
+
+    /**
+     * Stands in for the server packet handler, answering movements with entity motions.
+     */
+    private class SimulatedPacketHandler extends ChannelInboundHandlerAdapter {
+        private final Timestamps timestamps;
+        private final AtomicInteger entityIds = new AtomicInteger();
+
+        private SimulatedPacketHandler(Timestamps timestamps) {
+            this.timestamps = timestamps;
+        }
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            serverThreads.add(Thread.currentThread().getId());
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            inbound.record(System.nanoTime() - timestamps.readAt);
+            if (msg instanceof ServerboundMovePlayerPacket) {
+                timestamps.writeAt = System.nanoTime();
+                ctx.write(new ClientboundSetEntityMotionPacket(entityIds.incrementAndGet(), 100, -200, 300), ctx.voidPromise());
+            }
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            ctx.flush();
+        }
+    }
+}
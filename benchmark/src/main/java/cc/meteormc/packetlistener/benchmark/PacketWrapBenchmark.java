@@ -0,0 +1,57 @@
+package cc.meteormc.packetlistener.benchmark;
+
+import cc.meteormc.packetlistener.objects.Packet;
+import net.minecraft.network.protocol.game.ServerboundMovePlayerPacket;
+import net.minecraft.server.v1_8_R3.PacketPlayInFlying;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wrapping packets and accessing their fields.
+ *
+ * @author Meteor23333
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PacketWrapBenchmark {
+    private Object modern;
+    private Object legacy;
+    private Packet packet;
+
+    @Setup
+    public void setup() {
+        modern = new ServerboundMovePlayerPacket(1.5, 64, -3.25, 90, 10, true);
+        legacy = new PacketPlayInFlying(1.5, 64, -3.25, 90, 10, true);
+        packet = Packet.fromHandle(modern);
+    }
+
+    @Benchmark
+    public Packet fromHandleModern() {
+        return Packet.fromHandle(modern);
+    }
+
+    @Benchmark
+    public Packet fromHandleLegacy() {
+        return Packet.fromHandle(legacy);
+    }
+
+    @Benchmark
+    public Object getFieldValue() {
+        return packet.getFieldValue(1);
+    }
+
+    @Benchmark
+    public Object getFieldValueOfType() {
+        return packet.getFieldValueOfType(float.class, 1);
+    }
+
+    @Benchmark
+    public void setFieldValue() {
+        packet.setFieldValue(3, 45f);
+    }
+}
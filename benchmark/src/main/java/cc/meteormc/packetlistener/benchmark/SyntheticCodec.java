@@ -0,0 +1,116 @@
+package cc.meteormc.packetlistener.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.MessageToMessageDecoder;
+import net.minecraft.network.protocol.game.ClientboundSetEntityMotionPacket;
+import net.minecraft.network.protocol.game.ServerboundChatPacket;
+import net.minecraft.network.protocol.game.ServerboundMovePlayerPacket;
+import net.minecraft.network.protocol.game.ServerboundSwingPacket;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Serialization of the synthetic packets, standing in for the server codec.
+ * <p>
+ * A frame is the packet id as a single-byte VarInt followed by the fields, one frame per message,
+ * as the local transport keeps message boundaries and no splitter is needed.
+ *
+ * @author Meteor23333
+ */
+public final class SyntheticCodec {
+    public static final int MOVE_PLAYER = 0;
+    public static final int SWING = 1;
+    public static final int CHAT = 2;
+    public static final int SET_ENTITY_MOTION = 0;
+
+    private static final byte[] CHAT_MESSAGE = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Writes a movement frame with random coordinates.
+     *
+     * @param buf the buffer
+     */
+    public static void writeMovePlayer(@NotNull ByteBuf buf) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        buf.writeByte(MOVE_PLAYER);
+        buf.writeDouble(random.nextDouble(-1000, 1000));
+        buf.writeDouble(random.nextDouble(0, 256));
+        buf.writeDouble(random.nextDouble(-1000, 1000));
+        buf.writeFloat(random.nextFloat() * 360);
+        buf.writeFloat(random.nextFloat() * 180 - 90);
+        buf.writeBoolean(random.nextBoolean());
+    }
+
+    /**
+     * Writes an arm swing frame.
+     *
+     * @param buf the buffer
+     */
+    public static void writeSwing(@NotNull ByteBuf buf) {
+        buf.writeByte(SWING);
+        buf.writeByte(ThreadLocalRandom.current().nextInt(2));
+    }
+
+    /**
+     * Writes a chat frame.
+     *
+     * @param buf the buffer
+     */
+    public static void writeChat(@NotNull ByteBuf buf) {
+        buf.writeByte(CHAT);
+        buf.writeShort(CHAT_MESSAGE.length);
+        buf.writeBytes(CHAT_MESSAGE);
+        buf.writeLong(System.currentTimeMillis());
+    }
+
+    /**
+     * Decodes serverbound frames into new packet objects, like the server decoder does.
+     */
+    public static class Decoder extends MessageToMessageDecoder<ByteBuf> {
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf buf, List<Object> out) {
+            int id = buf.readByte();
+            switch (id) {
+                case MOVE_PLAYER:
+                    out.add(new ServerboundMovePlayerPacket(buf.readDouble(), buf.readDouble(), buf.readDouble(), buf.readFloat(), buf.readFloat(), buf.readBoolean()));
+                    break;
+                case SWING:
+                    out.add(new ServerboundSwingPacket(buf.readByte()));
+                    break;
+                case CHAT:
+                    int length = buf.readUnsignedShort();
+                    out.add(new ServerboundChatPacket(buf.readCharSequence(length, StandardCharsets.UTF_8).toString(), buf.readLong()));
+                    break;
+                default:
+                    throw new DecoderException("Unknown packet id " + id);
+            }
+        }
+    }
+
+    /**
+     * Encodes clientbound packets into frames, like the server encoder does.
+     */
+    public static class Encoder extends MessageToByteEncoder<ClientboundSetEntityMotionPacket> {
+        @Override
+        protected void encode(ChannelHandlerContext ctx, ClientboundSetEntityMotionPacket packet, ByteBuf out) {
+            out.writeByte(SET_ENTITY_MOTION);
+            out.writeInt(packet.getId());
+            out.writeShort(packet.getXa());
+            out.writeShort(packet.getYa());
+            out.writeShort(packet.getZa());
+        }
+    }
+
+    /**
+     * This class cannot be instantiated!
+     */
+    private SyntheticCodec() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+}
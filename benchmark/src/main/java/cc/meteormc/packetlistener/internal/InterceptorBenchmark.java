@@ -0,0 +1,102 @@
+package cc.meteormc.packetlistener.internal;
+
+import cc.meteormc.packetlistener.PacketListener;
+import cc.meteormc.packetlistener.benchmark.Fixtures;
+import cc.meteormc.packetlistener.event.PacketEvent;
+import cc.meteormc.packetlistener.event.PacketInboundEvent;
+import cc.meteormc.packetlistener.event.PacketOutboundEvent;
+import cc.meteormc.packetlistener.objects.PacketDirection;
+import io.netty.channel.*;
+import io.netty.channel.embedded.EmbeddedChannel;
+import net.minecraft.network.protocol.game.ClientboundSetEntityMotionPacket;
+import net.minecraft.network.protocol.game.ServerboundMovePlayerPacket;
+import org.bukkit.event.HandlerList;
+import org.bukkit.plugin.Plugin;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end throughput of the {@link PacketInterceptor} on an {@link EmbeddedChannel}.
+ * <p>
+ * The pipeline is {@code sink -> packetlistener_interceptor -> packet_handler}, where both ends swallow the packets,
+ * so only the interception cost is measured.
+ *
+ * @author Meteor23333
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterceptorBenchmark {
+    /**
+     * Who listens to the packets: nobody, a native handler, or a Bukkit listener.
+     */
+    @Param({"NONE", "NATIVE", "BUKKIT"})
+    public String listeners;
+
+    @Param({"false", "true"})
+    public boolean eventReuse;
+
+    private EmbeddedChannel channel;
+    private ChannelPipeline pipeline;
+    private ChannelPromise voidPromise;
+    private Object inbound;
+    private Object outbound;
+
+    @Setup
+    public void setup() {
+        Plugin plugin = Fixtures.plugin();
+        PacketListener.setEventReuse(eventReuse);
+        switch (listeners) {
+            case "NATIVE":
+                PacketListener.subscribe(plugin, PacketDirection.SERVERBOUND, "MovePlayer", event -> Fixtures.sink = event.getPacket());
+                PacketListener.subscribe(plugin, PacketDirection.CLIENTBOUND, "SetEntityMotion", event -> Fixtures.sink = event.getPacket());
+                break;
+            case "BUKKIT":
+                Fixtures.registerListener(PacketInboundEvent.getHandlerList(), event -> Fixtures.sink = ((PacketEvent) event).getPacket());
+                Fixtures.registerListener(PacketOutboundEvent.getHandlerList(), event -> Fixtures.sink = ((PacketEvent) event).getPacket());
+                break;
+        }
+
+        channel = new EmbeddedChannel();
+        pipeline = channel.pipeline();
+        voidPromise = channel.voidPromise();
+        pipeline.addLast("sink", new ChannelOutboundHandlerAdapter() {
+            @Override
+            public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+                promise.trySuccess();
+            }
+        });
+        pipeline.addLast("packet_handler", new ChannelInboundHandlerAdapter() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            }
+        });
+        pipeline.addBefore("packet_handler", PacketInterceptor.NAME, new PacketInterceptor(channel));
+
+        inbound = new ServerboundMovePlayerPacket(1.5, 64, -3.25, 90, 10, true);
+        outbound = new ClientboundSetEntityMotionPacket(42, 100, -200, 300);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Plugin plugin = Fixtures.plugin();
+        PacketListener.unsubscribeAll(plugin);
+        HandlerList.unregisterAll(plugin);
+        PacketListener.setEventReuse(false);
+        channel.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public void read() {
+        pipeline.fireChannelRead(inbound);
+    }
+
+    @Benchmark
+    public void write() {
+        pipeline.write(outbound, voidPromise);
+    }
+}
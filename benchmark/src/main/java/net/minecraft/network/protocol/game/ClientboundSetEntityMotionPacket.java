@@ -0,0 +1,36 @@
+package net.minecraft.network.protocol.game;
+
+/**
+ * Synthetic clientbound packet with a modern (Mojang-mapped) name, shaped like the entity velocity packet.
+ *
+ * @author Meteor23333
+ */
+public class ClientboundSetEntityMotionPacket {
+    private final int id;
+    private final int xa;
+    private final int ya;
+    private final int za;
+
+    public ClientboundSetEntityMotionPacket(int id, int xa, int ya, int za) {
+        this.id = id;
+        this.xa = xa;
+        this.ya = ya;
+        this.za = za;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getXa() {
+        return xa;
+    }
+
+    public int getYa() {
+        return ya;
+    }
+
+    public int getZa() {
+        return za;
+    }
+}
@@ -0,0 +1,16 @@
+package net.minecraft.network.protocol.game;
+
+/**
+ * Synthetic serverbound packet with a modern (Mojang-mapped) name, shaped like the chat packet.
+ *
+ * @author Meteor23333
+ */
+public class ServerboundChatPacket {
+    private final String message;
+    private final long timeStamp;
+
+    public ServerboundChatPacket(String message, long timeStamp) {
+        this.message = message;
+        this.timeStamp = timeStamp;
+    }
+}
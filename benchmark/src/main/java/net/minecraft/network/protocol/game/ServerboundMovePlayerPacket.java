@@ -0,0 +1,24 @@
+package net.minecraft.network.protocol.game;
+
+/**
+ * Synthetic serverbound packet with a modern (Mojang-mapped) name, shaped like the player movement packet.
+ *
+ * @author Meteor23333
+ */
+public class ServerboundMovePlayerPacket {
+    private final double x;
+    private final double y;
+    private final double z;
+    private final float yRot;
+    private final float xRot;
+    private final boolean onGround;
+
+    public ServerboundMovePlayerPacket(double x, double y, double z, float yRot, float xRot, boolean onGround) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.yRot = yRot;
+        this.xRot = xRot;
+        this.onGround = onGround;
+    }
+}
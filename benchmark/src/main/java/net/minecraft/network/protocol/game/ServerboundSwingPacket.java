@@ -0,0 +1,14 @@
+package net.minecraft.network.protocol.game;
+
+/**
+ * Synthetic serverbound packet with a modern (Mojang-mapped) name, shaped like the arm swing packet.
+ *
+ * @author Meteor23333
+ */
+public class ServerboundSwingPacket {
+    private final int hand;
+
+    public ServerboundSwingPacket(int hand) {
+        this.hand = hand;
+    }
+}
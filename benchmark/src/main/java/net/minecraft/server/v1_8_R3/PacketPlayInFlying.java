@@ -0,0 +1,24 @@
+package net.minecraft.server.v1_8_R3;
+
+/**
+ * Synthetic serverbound packet with a legacy (Spigot-mapped) name, shaped like the player movement packet.
+ *
+ * @author Meteor23333
+ */
+public class PacketPlayInFlying {
+    protected double x;
+    protected double y;
+    protected double z;
+    protected float yaw;
+    protected float pitch;
+    protected boolean f;
+
+    public PacketPlayInFlying(double x, double y, double z, float yaw, float pitch, boolean f) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.yaw = yaw;
+        this.pitch = pitch;
+        this.f = f;
+    }
+}
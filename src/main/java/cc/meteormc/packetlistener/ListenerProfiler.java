@@ -0,0 +1,299 @@
+package cc.meteormc.packetlistener;
+
+import cc.meteormc.packetlistener.event.PacketInboundEvent;
+import cc.meteormc.packetlistener.event.PacketOutboundEvent;
+import cc.meteormc.packetlistener.internal.PacketDispatcher;
+import cc.meteormc.packetlistener.objects.ListenerTiming;
+import cc.meteormc.packetlistener.objects.PacketDirection;
+import cc.meteormc.packetlistener.objects.PacketType;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.server.PluginDisableEvent;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.RegisteredListener;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Measures how long the Bukkit listeners and native handlers take to handle each packet type on the Netty I/O thread.
+ * <p>
+ * A slow listener delays every connection sharing its event loop, the profiler names the plugin responsible.
+ * Calls above a threshold are reported in the log, and a listener that keeps exceeding it
+ * can be demoted to asynchronous delivery or disabled, see {@link SlowListenerPolicy}.
+ * Asynchronous and batched handlers are not measured, as they do not run on the I/O thread.
+ * <p>
+ * Disabled by default, while disabled the dispatch is not timed at all.
+ *
+ * @author Meteor23333
+ */
+public class ListenerProfiler {
+    private static final int BUCKETS = 40;
+    private static final long WARNING_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+
+    private static final Map<Object, Map<PacketType, Timing>> TIMINGS = new ConcurrentHashMap<>();
+    private static final Set<Object> PENALIZED = ConcurrentHashMap.newKeySet();
+
+    private static volatile boolean enabled = false;
+    private static volatile long thresholdNanos = TimeUnit.MILLISECONDS.toNanos(5);
+    private static volatile SlowListenerPolicy policy = SlowListenerPolicy.WARN;
+    private static volatile int strikes = 20;
+
+    /**
+     * Sets whether listeners are timed.
+     *
+     * @param enabled true to time listeners
+     */
+    public static void setEnabled(boolean enabled) {
+        ListenerProfiler.enabled = enabled;
+    }
+
+    /**
+     * Gets whether listeners are timed.
+     *
+     * @return true if listeners are timed
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Configures the slow listener watchdog.
+     * <p>
+     * By default, calls above {@code 5} milliseconds are reported and no further action is taken.
+     *
+     * @param threshold the dispatch time above which a call is slow
+     * @param unit the unit of the threshold
+     * @param policy the policy applied to a listener once it has been slow for a packet type {@code strikes} times
+     * @param strikes the number of slow calls before the policy is applied
+     * @throws IllegalArgumentException if the threshold or the number of strikes is not positive
+     */
+    public static void configure(long threshold, @NotNull TimeUnit unit, @NotNull SlowListenerPolicy policy, int strikes) throws IllegalArgumentException {
+        if (threshold <= 0) throw new IllegalArgumentException("Threshold must be positive: " + threshold);
+        if (strikes <= 0) throw new IllegalArgumentException("Strikes must be positive: " + strikes);
+
+        ListenerProfiler.thresholdNanos = unit.toNanos(threshold);
+        ListenerProfiler.policy = policy;
+        ListenerProfiler.strikes = strikes;
+    }
+
+    /**
+     * Gets the dispatch times of every listener and packet type measured so far, the most expensive first.
+     *
+     * @return the snapshots of the timings
+     */
+    public static @NotNull List<ListenerTiming> getTimings() {
+        List<ListenerTiming> timings = new ArrayList<>();
+        for (Map<PacketType, Timing> byType : TIMINGS.values()) {
+            for (Timing timing : byType.values()) {
+                timings.add(timing.snapshot());
+            }
+        }
+        timings.sort(Comparator.comparingLong(ListenerTiming::getTotalNanos).reversed());
+        return timings;
+    }
+
+    /**
+     * Discards all measurements, and lets penalized listeners be judged again should they be registered again.
+     */
+    public static void reset() {
+        TIMINGS.clear();
+        PENALIZED.clear();
+    }
+
+    /**
+     * Discards the measurements of the listeners of a plugin, so that they do not keep the plugin loaded.
+     * Called when the handlers of the plugin are removed and when the plugin is disabled.
+     *
+     * @param plugin the plugin
+     */
+    public static void forget(@NotNull Plugin plugin) {
+        TIMINGS.keySet().removeIf(listener -> getPlugin(listener) == plugin);
+        PENALIZED.removeIf(listener -> getPlugin(listener) == plugin);
+    }
+
+    /**
+     * Discards the measurements of every plugin when it is disabled.
+     * <p>
+     * The listener is registered to the handler list directly, like the one of {@link PacketSession}.
+     *
+     * @param owner the plugin using the PacketListener
+     */
+    static void forgetDisabledPlugins(@NotNull Plugin owner) {
+        PluginDisableEvent.getHandlerList().register(new RegisteredListener(
+                new Listener() {
+                },
+                (listener, event) -> {
+                    if (event instanceof PluginDisableEvent) forget(((PluginDisableEvent) event).getPlugin());
+                },
+                EventPriority.MONITOR, owner, false
+        ));
+    }
+
+    /**
+     * Gets the plugin owning a listener.
+     *
+     * @param listener the {@link PacketSubscription} or {@link RegisteredListener}
+     * @return the plugin, or {@code null} if unknown
+     */
+    private static @Nullable Plugin getPlugin(@NotNull Object listener) {
+        if (listener instanceof PacketSubscription) return ((PacketSubscription) listener).getPlugin();
+        if (listener instanceof RegisteredListener) return ((RegisteredListener) listener).getPlugin();
+        return null;
+    }
+
+    /**
+     * Records the dispatch time of a listener. Called by the interceptor while profiling is enabled.
+     *
+     * @param listener the {@link PacketSubscription} or {@link RegisteredListener}
+     * @param plugin the plugin owning the listener
+     * @param type the packet type
+     * @param nanos the dispatch time in nanoseconds
+     */
+    @ApiStatus.Internal
+    public static void record(@NotNull Object listener, @NotNull Plugin plugin, @NotNull PacketType type, long nanos) {
+        Map<PacketType, Timing> byType = TIMINGS.get(listener);
+        if (byType == null) byType = TIMINGS.computeIfAbsent(listener, key -> new ConcurrentHashMap<>());
+        Timing timing = byType.get(type);
+        if (timing == null) timing = byType.computeIfAbsent(type, key -> new Timing(listener, plugin, type));
+
+        timing.record(nanos);
+        if (nanos >= thresholdNanos) onSlow(timing, nanos);
+    }
+
+    /**
+     * Reports a slow call and applies the policy once the listener has used up its strikes.
+     *
+     * @param timing the timing of the listener and packet type
+     * @param nanos the dispatch time in nanoseconds
+     */
+    private static void onSlow(@NotNull Timing timing, long nanos) {
+        int count = timing.slow.incrementAndGet();
+
+        long now = System.nanoTime();
+        long last = timing.lastWarning.get();
+        if (now - last >= WARNING_INTERVAL && timing.lastWarning.compareAndSet(last, now)) {
+            PacketListener.getLogger().warning(String.format(
+                    "%s of %s took %.2f ms to handle packet %s on the Netty I/O thread (%d slow calls)",
+                    describe(timing.listener),
+                    timing.plugin.getName(),
+                    nanos / 1e6,
+                    timing.type.getFullName(),
+                    count
+            ));
+        }
+
+        SlowListenerPolicy policy = ListenerProfiler.policy;
+        if (count >= strikes && policy != SlowListenerPolicy.WARN && PENALIZED.add(timing.listener)) {
+            try {
+                penalize(timing.listener, timing.type.getDirection(), policy);
+                PacketListener.getLogger().warning(String.format(
+                        "%s of %s was too slow too often and has been %s",
+                        describe(timing.listener),
+                        timing.plugin.getName(),
+                        policy == SlowListenerPolicy.DEMOTE ? "moved to asynchronous delivery" : "disabled"
+                ));
+            } catch (Throwable e) {
+                PacketListener.getLogger().log(Level.SEVERE, "Could not apply " + policy + " to " + describe(timing.listener), e);
+            }
+        }
+    }
+
+    /**
+     * Demotes or disables a listener.
+     *
+     * @param listener the {@link PacketSubscription} or {@link RegisteredListener}
+     * @param direction the direction of the packets it was slow for
+     * @param policy the policy to apply
+     */
+    private static void penalize(@NotNull Object listener, @NotNull PacketDirection direction, @NotNull SlowListenerPolicy policy) {
+        if (listener instanceof PacketSubscription) {
+            PacketSubscription subscription = (PacketSubscription) listener;
+            subscription.unsubscribe();
+            if (policy == SlowListenerPolicy.DEMOTE) PacketDispatcher.subscribe(subscription.toAsync());
+        } else if (listener instanceof RegisteredListener) {
+            RegisteredListener registered = (RegisteredListener) listener;
+            HandlerList handlers = direction == PacketDirection.SERVERBOUND ? PacketInboundEvent.getHandlerList() : PacketOutboundEvent.getHandlerList();
+            handlers.unregister(registered);
+            if (policy == SlowListenerPolicy.DEMOTE) {
+                PacketDispatcher.subscribe(new PacketSubscription(
+                        registered.getPlugin(), direction, null, null, null,
+                        EventPriority.MONITOR, registered.isIgnoringCancelled(), true,
+                        registered::callEvent
+                ));
+            }
+        }
+    }
+
+    /**
+     * Describes a listener for the log.
+     *
+     * @param listener the {@link PacketSubscription} or {@link RegisteredListener}
+     * @return the class name of the handler or the Bukkit listener
+     */
+    private static @NotNull String describe(@NotNull Object listener) {
+        if (listener instanceof PacketSubscription) {
+            return "Handler " + ((PacketSubscription) listener).getHandler().getClass().getName();
+        } else if (listener instanceof RegisteredListener) {
+            return "Listener " + ((RegisteredListener) listener).getListener().getClass().getName();
+        }
+        return String.valueOf(listener);
+    }
+
+    /**
+     * The dispatch times of one listener for one packet type.
+     */
+    private static class Timing {
+        private final Object listener;
+        private final Plugin plugin;
+        private final PacketType type;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+        private final AtomicInteger slow = new AtomicInteger();
+        private final AtomicLong lastWarning = new AtomicLong(System.nanoTime() - WARNING_INTERVAL);
+
+        private Timing(Object listener, Plugin plugin, PacketType type) {
+            this.listener = listener;
+            this.plugin = plugin;
+            this.type = type;
+        }
+
+        private void record(long nanos) {
+            count.increment();
+            total.add(nanos);
+            histogram.incrementAndGet(Math.max(0, Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(nanos))));
+
+            long current;
+            do {
+                current = max.get();
+            } while (nanos > current && !max.compareAndSet(current, nanos));
+        }
+
+        private ListenerTiming snapshot() {
+            long[] buckets = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = histogram.get(i);
+            }
+            return new ListenerTiming(plugin, describe(listener), type, count.sum(), total.sum(), max.get(), slow.get(), buckets);
+        }
+    }
+
+    /**
+     * This class cannot be instantiated!
+     */
+    private ListenerProfiler() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+}
@@ -0,0 +1,28 @@
+package cc.meteormc.packetlistener;
+
+/**
+ * Decides what happens to a packet when the asynchronous delivery queue of its connection is full.
+ *
+ * @author Meteor23333
+ * @see PacketListener#configureAsync(int, OverflowPolicy)
+ */
+public enum OverflowPolicy {
+    /**
+     * The packet is not delivered to the asynchronous handlers.
+     */
+    DROP,
+    /**
+     * The Netty I/O thread waits until the queue has room again, for at most {@code 50} milliseconds,
+     * after which the packet is dropped and a warning is logged.
+     * Further packets are then dropped without waiting until the queue has room again.
+     * This delivers all packets as long as the handlers keep up, at the cost of stalling the connection
+     * and the others on the same event loop behind slow handlers.
+     */
+    BLOCK,
+    /**
+     * Once the queue is more than half full, only one out of every {@code 8} packets is delivered,
+     * and packets are dropped when it is full.
+     * This keeps a representative sample of the traffic under load.
+     */
+    SAMPLE
+}
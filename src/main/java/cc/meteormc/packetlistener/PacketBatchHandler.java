@@ -0,0 +1,26 @@
+package cc.meteormc.packetlistener;
+
+import cc.meteormc.packetlistener.event.PacketEvent;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * A handler receiving the packets of a connection in batches, once per server tick on the main thread.
+ *
+ * @author Meteor23333
+ * @see PacketListener#subscribeBatched(org.bukkit.plugin.Plugin, cc.meteormc.packetlistener.objects.PacketDirection, cc.meteormc.packetlistener.objects.PacketStage, String, boolean, PacketBatchHandler)
+ */
+@FunctionalInterface
+public interface PacketBatchHandler {
+    /**
+     * Handles the packets of one connection collected since the previous tick.
+     * <p>
+     * The events are in the order the packets passed through the connection.
+     * They have already been handled on the Netty I/O thread, cancelling them has no effect.
+     *
+     * @param events the packet events of the connection, never empty
+     * @throws Exception thrown if an error occurs
+     */
+    void handle(@NotNull List<PacketEvent> events) throws Exception;
+}
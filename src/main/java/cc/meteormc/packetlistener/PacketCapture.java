@@ -0,0 +1,143 @@
+package cc.meteormc.packetlistener;
+
+import cc.meteormc.packetlistener.internal.CaptureReader;
+import cc.meteormc.packetlistener.internal.CaptureReplay;
+import cc.meteormc.packetlistener.internal.CaptureWriter;
+import cc.meteormc.packetlistener.objects.CapturedPacket;
+import cc.meteormc.packetlistener.objects.PacketStage;
+import cc.meteormc.packetlistener.objects.ReplayReport;
+import io.netty.channel.Channel;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Records serialized packets into a memory-mapped ring file, for debugging protocol issues in production.
+ * <p>
+ * Frames are recorded next to the codec, without compression, together with the time, the connection,
+ * the direction, the stage and the packet id. Recording happens on the Netty I/O thread but never blocks
+ * nor allocates, and once the ring is full the oldest packets are overwritten.
+ * By default, all connections and all packets are captured while a capture is running.
+ * The file format is described in {@link CaptureWriter}.
+ * <p>
+ * A capture can be read back and replayed through the interceptors, see {@link PacketCapture#replay(List, ReplayDecoderFactory, double)}.
+ *
+ * @author Meteor23333
+ */
+public class PacketCapture {
+    /**
+     * Starts capturing into a file, replacing the running capture.
+     *
+     * @param file the capture file, created or truncated
+     * @param size the size of the file in bytes, which bounds the amount of traffic kept
+     * @throws IOException thrown if the file cannot be created or mapped
+     * @throws IllegalArgumentException if the size is smaller than 4 KiB or larger than 2 GiB
+     */
+    public static void start(@NotNull Path file, long size) throws IOException, IllegalArgumentException {
+        CaptureWriter.start(file, size);
+    }
+
+    /**
+     * Stops the running capture, if any, and flushes the file.
+     */
+    public static void stop() {
+        CaptureWriter.stop();
+    }
+
+    /**
+     * Gets whether a capture is running.
+     *
+     * @return true if a capture is running
+     */
+    public static boolean isRunning() {
+        return CaptureWriter.isActive();
+    }
+
+    /**
+     * Gets the number of packets recorded by the running capture, including those already overwritten.
+     *
+     * @return the number of recorded packets
+     */
+    public static long getRecordedCount() {
+        return CaptureWriter.getRecordedCount();
+    }
+
+    /**
+     * Sets whether all connections are captured, or only those selected by {@link PacketCapture#setCaptured(Channel, boolean)}.
+     *
+     * @param capturingAll true to capture all connections
+     */
+    public static void setCapturingAll(boolean capturingAll) {
+        CaptureWriter.setCapturingAll(capturingAll);
+    }
+
+    /**
+     * Selects a connection for capturing, when not all connections are captured.
+     *
+     * @param channel the channel of the connection
+     * @param captured true to capture the connection
+     * @throws IllegalArgumentException if the connection is not intercepted
+     */
+    public static void setCaptured(@NotNull Channel channel, boolean captured) throws IllegalArgumentException {
+        CaptureWriter.setCaptured(channel, captured);
+    }
+
+    /**
+     * Restricts the captured packets of a stage to the given packet ids.
+     *
+     * @param stage the stage the packet ids belong to
+     * @param packetIds the protocol ids of the packets to capture
+     */
+    public static void setPacketIds(@NotNull PacketStage stage, int... packetIds) {
+        CaptureWriter.setPacketIds(stage, packetIds.clone());
+    }
+
+    /**
+     * Captures all packets of a stage again.
+     *
+     * @param stage the stage
+     */
+    public static void clearPacketIds(@NotNull PacketStage stage) {
+        CaptureWriter.setPacketIds(stage, null);
+    }
+
+    /**
+     * Reads the packets of a capture file. The file may belong to a running capture.
+     *
+     * @param file the capture file
+     * @return the captured packets, in the order they were recorded
+     * @throws IOException thrown if the file cannot be read or is not a capture file
+     */
+    public static @NotNull List<CapturedPacket> read(@NotNull Path file) throws IOException {
+        return CaptureReader.read(file);
+    }
+
+    /**
+     * Replays captured packets through the interceptors, calling the registered handlers and listeners
+     * as if the packets were received and sent again.
+     * <p>
+     * Every captured connection gets its own embedded channel, and all packets are replayed on the calling thread
+     * in the order they were recorded, so the replay of each connection is deterministic.
+     * The replayed channels have no player, and their packets are not sent anywhere.
+     *
+     * @param packets the captured packets, as returned by {@link PacketCapture#read(Path)}
+     * @param decoders the factory of the decoders turning the frames back into packets
+     * @param speed the speed relative to the capture, {@code 1} for the original speed,
+     *              {@code 0} or {@link Double#POSITIVE_INFINITY} to replay as fast as possible
+     * @return the report of the replay
+     * @throws InterruptedException thrown if the thread is interrupted while waiting for the next packet
+     * @throws IllegalArgumentException if the speed is negative or not a number
+     */
+    public static @NotNull ReplayReport replay(@NotNull List<CapturedPacket> packets, @NotNull ReplayDecoderFactory decoders, double speed) throws InterruptedException, IllegalArgumentException {
+        return new CaptureReplay(decoders, speed).replay(packets);
+    }
+
+    /**
+     * This class cannot be instantiated!
+     */
+    private PacketCapture() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+}
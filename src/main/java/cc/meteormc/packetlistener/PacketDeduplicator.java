@@ -0,0 +1,125 @@
+package cc.meteormc.packetlistener;
+
+import cc.meteormc.packetlistener.internal.RedundancyFilter;
+import cc.meteormc.packetlistener.objects.Packet;
+import cc.meteormc.packetlistener.objects.PacketType;
+import io.netty.channel.Channel;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.Function;
+
+/**
+ * Drops outbound packets that would not change anything on the client, such as entity metadata, equipment,
+ * scoreboard or title updates resent every tick with the same content.
+ * <p>
+ * Each connection remembers the content of the last packets it was sent, by packet type and by a key extracted
+ * from the packet, such as the entity id. A packet whose content equals the remembered one is dropped.
+ * Nothing is installed until the first type is registered, and packets written as already encoded frames,
+ * such as those of {@link PacketSender#broadcast}, are never dropped.
+ * <p>
+ * The remembered packets are forgotten when the stage of the connection changes and when a resetting packet is sent.
+ * Register the packets after which the client state may differ from the remembered one as resetting,
+ * such as entity removal and respawn packets, so that the next updates are sent again.
+ * A type may be both deduplicated and resetting: its packets are compared first, so a redundant one is dropped
+ * and forgets nothing, while one that is sent makes the connection forget the others.
+ * <p>
+ * Packets are dropped after the outbound listeners have run, right before they are encoded.
+ * Listeners therefore still see dropped packets as sent, and {@link PacketStatistics} counts them as well,
+ * though without any bytes as they are never encoded.
+ *
+ * @author Meteor23333
+ */
+public class PacketDeduplicator {
+    /**
+     * Drops the packets of a type whose fields all equal those of the last packet with the same key.
+     * <p>
+     * Fields are compared shallowly, with {@link Object#equals(Object)}, and arrays by content.
+     * Fields holding mutable objects without a meaningful {@code equals}, or reused and modified between packets,
+     * such as lists of metadata entries, make packets look different or the same regardless of their content:
+     * register a content extractor for such types.
+     *
+     * @param type the packet type
+     * @param key the extractor of the key, distinguishing the packets of the type, which may return {@code null}
+     * @see PacketDeduplicator#register(PacketType, Function, Function)
+     */
+    public static void register(@NotNull PacketType type, @NotNull Function<Packet, Object> key) {
+        RedundancyFilter.setDeduplicated(type, key, null);
+    }
+
+    /**
+     * Drops the packets of a type whose content equals that of the last packet with the same key.
+     * <p>
+     * The extractors are called on the Netty I/O thread of the connection. Contents are compared with
+     * {@link java.util.Objects#deepEquals(Object, Object)}, so arrays are compared by content.
+     * The content is kept after the packet is sent and must not change afterwards, copy mutable objects if needed.
+     * If the content is {@code null}, the packet is always sent.
+     *
+     * @param type the packet type
+     * @param key the extractor of the key, distinguishing the packets of the type, which may return {@code null}
+     * @param content the extractor of the compared content
+     */
+    public static void register(@NotNull PacketType type, @NotNull Function<Packet, Object> key, @NotNull Function<Packet, Object> content) {
+        RedundancyFilter.setDeduplicated(type, key, content);
+    }
+
+    /**
+     * Sets whether sending a packet of a type makes the connection forget the packets it was sent.
+     *
+     * @param type the packet type
+     * @param resetting true to forget the packets whenever a packet of the type is sent
+     */
+    public static void setResetting(@NotNull PacketType type, boolean resetting) {
+        RedundancyFilter.setResetting(type, resetting);
+    }
+
+    /**
+     * Stops dropping the packets of a type, and clears its resetting flag.
+     *
+     * @param type the packet type
+     */
+    public static void unregister(@NotNull PacketType type) {
+        RedundancyFilter.removeRule(type);
+    }
+
+    /**
+     * Removes all registrations, after which all packets are sent again.
+     */
+    public static void clear() {
+        RedundancyFilter.clear();
+    }
+
+    /**
+     * Sets the number of packets remembered per connection, least recently sent first out. Defaults to {@code 256}.
+     *
+     * @param size the number of packets
+     * @throws IllegalArgumentException if the size is not positive
+     */
+    public static void setCacheSize(int size) throws IllegalArgumentException {
+        RedundancyFilter.setCacheSize(size);
+    }
+
+    /**
+     * Makes a connection forget the packets it was sent, so that the next ones are sent regardless.
+     *
+     * @param channel the channel of the connection
+     */
+    public static void invalidate(@NotNull Channel channel) {
+        RedundancyFilter.invalidate(channel);
+    }
+
+    /**
+     * Gets the number of packets dropped as redundant since the server started.
+     *
+     * @return the number of dropped packets
+     */
+    public static long getSuppressedCount() {
+        return RedundancyFilter.getSuppressedCount();
+    }
+
+    /**
+     * This class cannot be instantiated!
+     */
+    private PacketDeduplicator() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+}
@@ -0,0 +1,26 @@
+package cc.meteormc.packetlistener;
+
+import cc.meteormc.packetlistener.event.PacketEvent;
+import cc.meteormc.packetlistener.event.PacketInboundEvent;
+import cc.meteormc.packetlistener.event.PacketOutboundEvent;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A native packet handler, invoked directly by the interceptor without going through the Bukkit event system.
+ *
+ * @author Meteor23333
+ * @see PacketListener#subscribe(org.bukkit.plugin.Plugin, cc.meteormc.packetlistener.objects.PacketDirection, String, PacketHandler)
+ */
+@FunctionalInterface
+public interface PacketHandler {
+    /**
+     * Handles a packet.
+     * <p>
+     * The event is a {@link PacketInboundEvent} or a {@link PacketOutboundEvent}, depending on the subscribed direction.
+     * This method is called on the Netty I/O thread of the connection.
+     *
+     * @param event the packet event
+     * @throws Exception thrown if an error occurs
+     */
+    void handle(@NotNull PacketEvent event) throws Exception;
+}
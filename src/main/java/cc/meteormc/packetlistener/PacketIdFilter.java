@@ -0,0 +1,103 @@
+package cc.meteormc.packetlistener;
+
+import cc.meteormc.packetlistener.objects.PacketStage;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Range;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A rule table deciding whether inbound packets are dropped before the server decodes them.
+ * <p>
+ * Only the packet id is read from the inbound frame, and the decision is a lookup in a primitive
+ * table per {@link PacketStage}, so floods of unwanted packets are shed for a couple of memory reads each.
+ * Packet ids are protocol ids, which differ between server versions.
+ *
+ * @author Meteor23333
+ */
+public class PacketIdFilter {
+    private static final Action[] ACTIONS = Action.values();
+    private static final LongAdder DROPPED = new LongAdder();
+
+    private static volatile byte[][] table = new byte[PacketStage.values().length][0];
+
+    /**
+     * Sets the action applied to inbound packets with the given id.
+     *
+     * @param stage the stage the packet id belongs to
+     * @param packetId the protocol id of the packet
+     * @param action the action to apply
+     */
+    public static synchronized void setAction(@NotNull PacketStage stage, @Range(from = 0, to = 255) int packetId, @NotNull Action action) {
+        if (packetId < 0 || packetId > 255) throw new IllegalArgumentException("Packet id out of range: " + packetId);
+
+        byte[][] updated = table.clone();
+        byte[] actions = updated[stage.ordinal()];
+        updated[stage.ordinal()] = actions = Arrays.copyOf(actions, Math.max(actions.length, packetId + 1));
+        actions[packetId] = (byte) action.ordinal();
+        table = updated;
+    }
+
+    /**
+     * Gets the action applied to inbound packets with the given id.
+     *
+     * @param stage the stage the packet id belongs to
+     * @param packetId the protocol id of the packet
+     * @return the action, {@link Action#PASS} if no rule exists
+     */
+    public static @NotNull Action getAction(@NotNull PacketStage stage, int packetId) {
+        byte[] actions = table[stage.ordinal()];
+        return packetId >= 0 && packetId < actions.length ? ACTIONS[actions[packetId]] : Action.PASS;
+    }
+
+    /**
+     * Removes all rules.
+     */
+    public static synchronized void clear() {
+        table = new byte[PacketStage.values().length][0];
+    }
+
+    /**
+     * Records a packet rejected by the filter. Called by the interceptor.
+     */
+    @ApiStatus.Internal
+    public static void recordDropped() {
+        DROPPED.increment();
+    }
+
+    /**
+     * Gets the number of inbound packets rejected by the filter since the server started.
+     *
+     * @return the number of rejected packets
+     */
+    public static long getDroppedCount() {
+        return DROPPED.sum();
+    }
+
+    /**
+     * The action applied to a filtered packet.
+     */
+    public enum Action {
+        /**
+         * The packet is passed to the server.
+         */
+        PASS,
+        /**
+         * The packet is discarded before it is decoded.
+         */
+        DROP,
+        /**
+         * The packet is discarded and the connection is closed.
+         */
+        DISCONNECT
+    }
+
+    /**
+     * This class cannot be instantiated!
+     */
+    private PacketIdFilter() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+}
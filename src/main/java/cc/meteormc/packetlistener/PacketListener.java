@@ -1,9 +1,17 @@
 package cc.meteormc.packetlistener;
 
+import cc.meteormc.packetlistener.internal.AsyncPacketQueue;
 import cc.meteormc.packetlistener.internal.NettyPipelineInjector;
+import cc.meteormc.packetlistener.internal.PacketDispatcher;
+import cc.meteormc.packetlistener.internal.TickBatcher;
+import cc.meteormc.packetlistener.objects.PacketDirection;
+import cc.meteormc.packetlistener.objects.PacketStage;
+import cc.meteormc.packetlistener.objects.PacketType;
+import org.bukkit.event.EventPriority;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.logging.Logger;
 
@@ -26,9 +34,216 @@ public class PacketListener {
      */
     public static void init(Plugin owner) {
         PacketListener.owner = owner;
+        PacketSession.bindPlayers(owner);
+        ListenerProfiler.forgetDisabledPlugins(owner);
         NettyPipelineInjector.inject();
     }
 
+    /**
+     * Subscribes a native handler to the packets matching the given properties.
+     * <p>
+     * Native handlers are called directly by the interceptor, without going through
+     * the synchronized Bukkit event system, and only for the packet types they are subscribed to.
+     * Handlers with {@link EventPriority#MONITOR} are called after the Bukkit listeners, all others before.
+     *
+     * @param plugin the plugin owning the handler
+     * @param direction the direction of the packets
+     * @param stage the stage of the packets, or {@code null} to match any stage
+     * @param name the simple name of the packets (case-insensitive), or {@code null} to match any name
+     * @param priority the priority of the handler
+     * @param ignoreCancelled true if the handler should not receive cancelled packets
+     * @param handler the handler
+     * @return the subscription, which can be used to unsubscribe
+     */
+    public static @NotNull PacketSubscription subscribe(@NotNull Plugin plugin, @NotNull PacketDirection direction, @Nullable PacketStage stage, @Nullable String name, @NotNull EventPriority priority, boolean ignoreCancelled, @NotNull PacketHandler handler) {
+        PacketSubscription subscription = new PacketSubscription(plugin, direction, stage, name, null, priority, ignoreCancelled, false, handler);
+        PacketDispatcher.subscribe(subscription);
+        return subscription;
+    }
+
+    /**
+     * Subscribes a native handler with {@link EventPriority#NORMAL} to the packets with the given name.
+     *
+     * @param plugin the plugin owning the handler
+     * @param direction the direction of the packets
+     * @param name the simple name of the packets (case-insensitive)
+     * @param handler the handler
+     * @return the subscription, which can be used to unsubscribe
+     * @see PacketListener#subscribe(Plugin, PacketDirection, PacketStage, String, EventPriority, boolean, PacketHandler)
+     */
+    public static @NotNull PacketSubscription subscribe(@NotNull Plugin plugin, @NotNull PacketDirection direction, @NotNull String name, @NotNull PacketHandler handler) {
+        return subscribe(plugin, direction, null, name, EventPriority.NORMAL, false, handler);
+    }
+
+    /**
+     * Subscribes a native handler to the packets of the given class.
+     *
+     * @param plugin the plugin owning the handler
+     * @param packetClass the class of the original packet objects
+     * @param priority the priority of the handler
+     * @param ignoreCancelled true if the handler should not receive cancelled packets
+     * @param handler the handler
+     * @return the subscription, which can be used to unsubscribe
+     * @throws IllegalArgumentException if the class is not a packet
+     * @see PacketListener#subscribe(Plugin, PacketDirection, PacketStage, String, EventPriority, boolean, PacketHandler)
+     */
+    public static @NotNull PacketSubscription subscribe(@NotNull Plugin plugin, @NotNull Class<?> packetClass, @NotNull EventPriority priority, boolean ignoreCancelled, @NotNull PacketHandler handler) throws IllegalArgumentException {
+        PacketType type = PacketType.of(packetClass);
+        if (type == null) throw new IllegalArgumentException(packetClass.getName() + " is not a packet");
+
+        PacketSubscription subscription = new PacketSubscription(plugin, type.getDirection(), null, null, type, priority, ignoreCancelled, false, handler);
+        PacketDispatcher.subscribe(subscription);
+        return subscription;
+    }
+
+    /**
+     * Subscribes an asynchronous monitor handler to the packets matching the given properties.
+     * <p>
+     * Asynchronous handlers are called after all other handlers, off the Netty I/O thread,
+     * so slow handlers cannot add latency to the connection. The packets of each connection
+     * are delivered in order, through a bounded queue configured by {@link PacketListener#configureAsync(int, OverflowPolicy)}.
+     * The event is only observed, cancelling it has no effect.
+     *
+     * @param plugin the plugin owning the handler
+     * @param direction the direction of the packets
+     * @param stage the stage of the packets, or {@code null} to match any stage
+     * @param name the simple name of the packets (case-insensitive), or {@code null} to match any name
+     * @param handler the handler
+     * @return the subscription, which can be used to unsubscribe
+     */
+    public static @NotNull PacketSubscription subscribeAsync(@NotNull Plugin plugin, @NotNull PacketDirection direction, @Nullable PacketStage stage, @Nullable String name, @NotNull PacketHandler handler) {
+        PacketSubscription subscription = new PacketSubscription(plugin, direction, stage, name, null, EventPriority.MONITOR, false, true, handler);
+        PacketDispatcher.subscribe(subscription);
+        return subscription;
+    }
+
+    /**
+     * Subscribes an asynchronous monitor handler to the packets of the given class.
+     *
+     * @param plugin the plugin owning the handler
+     * @param packetClass the class of the original packet objects
+     * @param handler the handler
+     * @return the subscription, which can be used to unsubscribe
+     * @throws IllegalArgumentException if the class is not a packet
+     * @see PacketListener#subscribeAsync(Plugin, PacketDirection, PacketStage, String, PacketHandler)
+     */
+    public static @NotNull PacketSubscription subscribeAsync(@NotNull Plugin plugin, @NotNull Class<?> packetClass, @NotNull PacketHandler handler) throws IllegalArgumentException {
+        PacketType type = PacketType.of(packetClass);
+        if (type == null) throw new IllegalArgumentException(packetClass.getName() + " is not a packet");
+
+        PacketSubscription subscription = new PacketSubscription(plugin, type.getDirection(), null, null, type, EventPriority.MONITOR, false, true, handler);
+        PacketDispatcher.subscribe(subscription);
+        return subscription;
+    }
+
+    /**
+     * Subscribes a batch handler to the packets matching the given properties.
+     * <p>
+     * The packets are collected on the Netty I/O threads and delivered on the main thread once per server tick,
+     * as one batch per connection, using a single scheduler task for all connections.
+     * This avoids scheduling a task for every packet that needs to be handled on the main thread.
+     * The events are only observed, cancelling them has no effect.
+     * <p>
+     * This method must be called on the main thread, after the owner of the PacketListener has been enabled.
+     *
+     * @param plugin the plugin owning the handler
+     * @param direction the direction of the packets
+     * @param stage the stage of the packets, or {@code null} to match any stage
+     * @param name the simple name of the packets (case-insensitive), or {@code null} to match any name
+     * @param ignoreCancelled true if the handler should not receive packets cancelled by other handlers
+     * @param handler the batch handler
+     * @return the subscription, which can be used to unsubscribe
+     * @throws IllegalStateException if the PacketListener has not been initialized
+     */
+    public static @NotNull PacketSubscription subscribeBatched(@NotNull Plugin plugin, @NotNull PacketDirection direction, @Nullable PacketStage stage, @Nullable String name, boolean ignoreCancelled, @NotNull PacketBatchHandler handler) throws IllegalStateException {
+        if (owner == null) throw new IllegalStateException("PacketListener has not been initialized, call PacketListener.init first");
+        TickBatcher.start(owner);
+        return subscribe(plugin, direction, stage, name, EventPriority.MONITOR, ignoreCancelled, event -> TickBatcher.enqueue(event, handler, plugin));
+    }
+
+    /**
+     * Subscribes a batch handler to the packets matching the given properties, which are not cancelled.
+     *
+     * @param plugin the plugin owning the handler
+     * @param direction the direction of the packets
+     * @param stage the stage of the packets, or {@code null} to match any stage
+     * @param name the simple name of the packets (case-insensitive), or {@code null} to match any name
+     * @param handler the batch handler
+     * @return the subscription, which can be used to unsubscribe
+     * @throws IllegalStateException if the PacketListener has not been initialized
+     * @see PacketListener#subscribeBatched(Plugin, PacketDirection, PacketStage, String, boolean, PacketBatchHandler)
+     */
+    public static @NotNull PacketSubscription subscribeBatched(@NotNull Plugin plugin, @NotNull PacketDirection direction, @Nullable PacketStage stage, @Nullable String name, @NotNull PacketBatchHandler handler) throws IllegalStateException {
+        return subscribeBatched(plugin, direction, stage, name, true, handler);
+    }
+
+    /**
+     * Configures the asynchronous delivery.
+     * <p>
+     * By default, each connection can have up to {@code 1024} pending packets and further packets are dropped.
+     *
+     * @param capacity the maximum number of pending packets per connection
+     * @param policy the policy applied when the queue of a connection is full
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public static void configureAsync(int capacity, @NotNull OverflowPolicy policy) throws IllegalArgumentException {
+        AsyncPacketQueue.configure(capacity, policy);
+    }
+
+    /**
+     * Subscribes a raw handler to the serialized packets of a direction.
+     * <p>
+     * Inbound packets are passed before the server decodes them and outbound packets after the server has encoded them,
+     * both without compression. Only the packet id and a read-only view of the content are exposed,
+     * so dropping a packet here saves the whole decoding work.
+     * For static rules by packet id, {@link PacketIdFilter} is cheaper still.
+     *
+     * @param plugin the plugin owning the handler
+     * @param direction the direction of the packets
+     * @param handler the handler
+     */
+    public static void subscribeRaw(@NotNull Plugin plugin, @NotNull PacketDirection direction, @NotNull RawPacketHandler handler) {
+        PacketDispatcher.subscribeRaw(plugin, direction, handler);
+    }
+
+    /**
+     * Removes a raw handler.
+     *
+     * @param handler the handler
+     */
+    public static void unsubscribeRaw(@NotNull RawPacketHandler handler) {
+        PacketDispatcher.unsubscribeRaw(handler);
+    }
+
+    /**
+     * Sets whether packet events are reused.
+     * <p>
+     * When enabled, each connection reuses one event and one {@link cc.meteormc.packetlistener.objects.Packet}
+     * per direction instead of allocating them for every packet, so high-rate packets produce no garbage.
+     * Handlers must then not retain the event or its packet after returning, and should call
+     * {@link cc.meteormc.packetlistener.event.PacketEvent#snapshot()} if they need to.
+     * Asynchronous and batched handlers always receive snapshots.
+     * <p>
+     * Disabled by default.
+     *
+     * @param eventReuse true to reuse events
+     */
+    public static void setEventReuse(boolean eventReuse) {
+        PacketDispatcher.setEventReuse(eventReuse);
+    }
+
+    /**
+     * Removes all native and raw handlers of a plugin, along with their profiler measurements.
+     * <p>
+     * Handlers of disabled plugins are no longer called, but they are kept until this method is called.
+     *
+     * @param plugin the plugin
+     */
+    public static void unsubscribeAll(@NotNull Plugin plugin) {
+        PacketDispatcher.unsubscribeAll(plugin);
+        ListenerProfiler.forget(plugin);
+    }
+
     /**
      * Gets the Logger instance.
      *
@@ -0,0 +1,282 @@
+package cc.meteormc.packetlistener;
+
+import cc.meteormc.packetlistener.objects.PacketStage;
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.ChannelHandlerContext;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Range;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-connection budgets for inbound packets, to shed floods before the server decodes them.
+ * <p>
+ * Each rule is a token bucket refilling at a fixed rate up to a burst, kept per connection as a pair
+ * of {@code long}s in a primitive array, so checking a packet neither allocates nor locks.
+ * A rule applies to one packet id of a stage, or to all packets of a stage with {@link PacketRateLimiter#ANY_PACKET}.
+ * Like {@link PacketIdFilter}, rules are keyed by protocol ids, which differ between server versions.
+ *
+ * @author Meteor23333
+ */
+public class PacketRateLimiter {
+    /**
+     * The packet id of the rules applying to all packets of a stage.
+     */
+    public static final int ANY_PACKET = -1;
+    /**
+     * The maximum number of rules.
+     */
+    public static final int MAX_RULES = 64;
+
+    private static final LongAdder[] COUNTS = new LongAdder[Action.values().length];
+    // Times are relative to the class initialization, so that the empty state of a bucket is in the past.
+    private static final long EPOCH = System.nanoTime();
+
+    // Indexed by stage, then by packet id + 1, the rule applying to all packets comes first.
+    private static volatile Rule[][] rules = new Rule[PacketStage.values().length][0];
+    private static volatile boolean enabled = false;
+    private static long usedSlots;
+    private static long generation;
+
+    static {
+        for (int i = 0; i < COUNTS.length; i++) {
+            COUNTS[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Sets the budget of inbound packets with the given id, replacing the previous rule if any.
+     *
+     * @param stage the stage the packet id belongs to
+     * @param packetId the protocol id of the packet, or {@link PacketRateLimiter#ANY_PACKET} for all packets of the stage
+     * @param perSecond the number of packets allowed per second in the long run
+     * @param burst the number of packets allowed at once
+     * @param action the action applied to the packets exceeding the budget
+     * @throws IllegalArgumentException if the packet id is out of range or the rate or the burst is not positive
+     * @throws IllegalStateException if there are already {@link PacketRateLimiter#MAX_RULES} rules
+     */
+    public static synchronized void setLimit(@NotNull PacketStage stage, @Range(from = -1, to = 255) int packetId, double perSecond, int burst, @NotNull Action action) throws IllegalArgumentException, IllegalStateException {
+        if (packetId < ANY_PACKET || packetId > 255) throw new IllegalArgumentException("Packet id out of range: " + packetId);
+        if (!(perSecond > 0)) throw new IllegalArgumentException("Rate must be positive: " + perSecond);
+        if (burst <= 0) throw new IllegalArgumentException("Burst must be positive: " + burst);
+
+        Rule previous = getRule(stage, packetId);
+        int slot;
+        long ruleGeneration;
+        if (previous != null) {
+            // Replacing a rule keeps the buckets of the connections.
+            slot = previous.slot;
+            ruleGeneration = previous.generation;
+        } else {
+            if (usedSlots == -1L) throw new IllegalStateException("Too many rate limits, at most " + MAX_RULES + " are supported");
+            slot = Long.numberOfTrailingZeros(~usedSlots);
+            usedSlots |= 1L << slot;
+            ruleGeneration = ++generation;
+        }
+
+        long interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / perSecond));
+        Rule[][] updated = rules.clone();
+        Rule[] byId = updated[stage.ordinal()];
+        updated[stage.ordinal()] = byId = Arrays.copyOf(byId, Math.max(byId.length, packetId + 2));
+        byId[packetId + 1] = new Rule(slot, ruleGeneration, interval, interval * (burst - 1), action);
+        rules = updated;
+        enabled = true;
+    }
+
+    /**
+     * Removes the budget of inbound packets with the given id.
+     *
+     * @param stage the stage the packet id belongs to
+     * @param packetId the protocol id of the packet, or {@link PacketRateLimiter#ANY_PACKET} for all packets of the stage
+     */
+    public static synchronized void removeLimit(@NotNull PacketStage stage, int packetId) {
+        Rule previous = getRule(stage, packetId);
+        if (previous == null) return;
+
+        Rule[][] updated = rules.clone();
+        updated[stage.ordinal()] = updated[stage.ordinal()].clone();
+        updated[stage.ordinal()][packetId + 1] = null;
+        usedSlots &= ~(1L << previous.slot);
+        rules = updated;
+        enabled = usedSlots != 0;
+    }
+
+    /**
+     * Removes all budgets.
+     */
+    public static synchronized void clear() {
+        rules = new Rule[PacketStage.values().length][0];
+        usedSlots = 0;
+        enabled = false;
+    }
+
+    /**
+     * Gets the number of inbound packets that exceeded a budget since the server started.
+     *
+     * @param action the action applied to the packets
+     * @return the number of packets the action was applied to
+     */
+    public static long getCount(@NotNull Action action) {
+        return COUNTS[action.ordinal()].sum();
+    }
+
+    /**
+     * Gets whether any budget is set. Checked by the interceptor before looking up the rules.
+     *
+     * @return true if at least one budget is set
+     */
+    @ApiStatus.Internal
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Creates the buckets of a connection, two {@code long}s per slot:
+     * the time at which the bucket is empty again and the generation of the rule it belongs to.
+     *
+     * @return the buckets
+     */
+    @ApiStatus.Internal
+    public static @NotNull long[] createBuckets() {
+        return new long[MAX_RULES * 2];
+    }
+
+    /**
+     * Charges an inbound packet to the budgets of its connection and applies the action of an exceeded budget.
+     * Called by the interceptor on the event loop of the connection.
+     * <p>
+     * A delayed packet still passes, but the connection stops reading until the budget has refilled.
+     * Dropped and disconnecting packets are not charged.
+     *
+     * @param ctx the ctx of the interceptor
+     * @param buckets the buckets of the connection, created by {@link PacketRateLimiter#createBuckets()}
+     * @param stage the stage of the connection
+     * @param packetId the protocol id of the packet
+     * @return true if the packet should be discarded
+     */
+    @ApiStatus.Internal
+    public static boolean acquire(@NotNull ChannelHandlerContext ctx, @NotNull long[] buckets, @NotNull PacketStage stage, int packetId) {
+        Rule[] byId = rules[stage.ordinal()];
+        Rule any = byId.length != 0 ? byId[0] : null;
+        Rule specific = packetId >= 0 && packetId + 1 < byId.length ? byId[packetId + 1] : null;
+        if (any == null && specific == null) return false;
+
+        // The bucket holds the time at which it is empty again, a packet may come in while that is within the burst.
+        long now = System.nanoTime() - EPOCH;
+        Action exceeded = null;
+        long wait = 0;
+        if (specific != null) {
+            long overdraft = Math.max(getBucket(buckets, specific), now) - now - specific.tolerance;
+            if (overdraft > 0) {
+                exceeded = specific.action;
+                wait = overdraft;
+            }
+        }
+        if (any != null) {
+            long overdraft = Math.max(getBucket(buckets, any), now) - now - any.tolerance;
+            if (overdraft > 0) {
+                if (exceeded == null || any.action.ordinal() > exceeded.ordinal()) exceeded = any.action;
+                wait = Math.max(wait, overdraft);
+            }
+        }
+
+        if (exceeded == null || exceeded == Action.DELAY) {
+            if (specific != null) buckets[specific.slot * 2] = Math.max(buckets[specific.slot * 2], now) + specific.interval;
+            if (any != null) buckets[any.slot * 2] = Math.max(buckets[any.slot * 2], now) + any.interval;
+        }
+        if (exceeded == null) return false;
+
+        COUNTS[exceeded.ordinal()].increment();
+        switch (exceeded) {
+            case DELAY:
+                ChannelConfig config = ctx.channel().config();
+                // Leave a connection alone whose reading the server has already paused.
+                if (config.isAutoRead()) {
+                    config.setAutoRead(false);
+                    ctx.executor().schedule(() -> config.setAutoRead(true), wait, TimeUnit.NANOSECONDS);
+                }
+                return false;
+            case DISCONNECT:
+                ctx.channel().close();
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Gets the bucket of a rule, reset if the slot belonged to a removed rule before.
+     *
+     * @param buckets the buckets of the connection
+     * @param rule the rule
+     * @return the time at which the bucket is empty again
+     */
+    private static long getBucket(@NotNull long[] buckets, @NotNull Rule rule) {
+        int index = rule.slot * 2;
+        if (buckets[index + 1] != rule.generation) {
+            buckets[index] = 0;
+            buckets[index + 1] = rule.generation;
+        }
+        return buckets[index];
+    }
+
+    /**
+     * Gets the rule of a packet id. Must be called while holding the class lock.
+     *
+     * @param stage the stage the packet id belongs to
+     * @param packetId the protocol id of the packet, or {@link PacketRateLimiter#ANY_PACKET}
+     * @return the rule, or {@code null} if none
+     */
+    private static Rule getRule(@NotNull PacketStage stage, int packetId) {
+        Rule[] byId = rules[stage.ordinal()];
+        return packetId >= ANY_PACKET && packetId + 1 < byId.length ? byId[packetId + 1] : null;
+    }
+
+    /**
+     * The action applied to a packet exceeding its budget, from the mildest to the strictest.
+     */
+    public enum Action {
+        /**
+         * The packet is passed to the server, but the connection stops reading until the budget has refilled.
+         * The client is slowed down by TCP flow control.
+         */
+        DELAY,
+        /**
+         * The packet is discarded before it is decoded.
+         */
+        DROP,
+        /**
+         * The packet is discarded and the connection is closed.
+         */
+        DISCONNECT
+    }
+
+    /**
+     * A budget, kept per connection in the bucket at {@code slot}, which is reset when its generation does not match.
+     */
+    private static class Rule {
+        private final int slot;
+        private final long generation;
+        private final long interval;
+        private final long tolerance;
+        private final Action action;
+
+        private Rule(int slot, long generation, long interval, long tolerance, Action action) {
+            this.slot = slot;
+            this.generation = generation;
+            this.interval = interval;
+            this.tolerance = tolerance;
+            this.action = action;
+        }
+    }
+
+    /**
+     * This class cannot be instantiated!
+     */
+    private PacketRateLimiter() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+}
@@ -0,0 +1,165 @@
+package cc.meteormc.packetlistener;
+
+import cc.meteormc.packetlistener.internal.PacketBroadcaster;
+import cc.meteormc.packetlistener.objects.Packet;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+
+/**
+ * Sends packets to connections, coalescing the writes of a batch into a single flush.
+ * <p>
+ * Packets can be given either as original packet objects or as {@link Packet} wrappers.
+ * They pass through the pipeline like any other packet, so outbound handlers and listeners still see them.
+ *
+ * @author Meteor23333
+ */
+public class PacketSender {
+    /**
+     * Sends a packet to a connection.
+     *
+     * @param channel the channel of the connection
+     * @param packet the packet to send
+     */
+    public static void send(@NotNull Channel channel, @NotNull Object packet) {
+        sendAll(channel, new Object[]{unwrap(packet)});
+    }
+
+    /**
+     * Sends a batch of packets to a connection, in order, with a single flush.
+     * <p>
+     * When called from another thread, the batch is written on the event loop of the channel as a single task.
+     *
+     * @param channel the channel of the connection
+     * @param packets the packets to send
+     */
+    public static void sendAll(@NotNull Channel channel, @NotNull Collection<?> packets) {
+        Object[] handles = new Object[packets.size()];
+        int i = 0;
+        for (Object packet : packets) {
+            handles[i++] = unwrap(packet);
+        }
+        sendAll(channel, handles);
+    }
+
+    /**
+     * Sends a packet to a player.
+     *
+     * @param player the player
+     * @param packet the packet to send
+     * @throws IllegalArgumentException if the connection of the player is not intercepted
+     */
+    public static void send(@NotNull Player player, @NotNull Object packet) throws IllegalArgumentException {
+        send(getChannel(player), packet);
+    }
+
+    /**
+     * Sends a batch of packets to a player, in order, with a single flush.
+     *
+     * @param player the player
+     * @param packets the packets to send
+     * @throws IllegalArgumentException if the connection of the player is not intercepted
+     * @see PacketSender#sendAll(Channel, Collection)
+     */
+    public static void sendAll(@NotNull Player player, @NotNull Collection<?> packets) throws IllegalArgumentException {
+        sendAll(getChannel(player), packets);
+    }
+
+    /**
+     * Sends a packet to many connections, serializing and compressing it only once.
+     * <p>
+     * Unlike {@link PacketSender#send(Channel, Object)}, the packet bypasses the outbound handlers and listeners,
+     * it is written to every connection as the already encoded frame.
+     * The raw handlers, the traffic statistics and the capture still see the frame, as for any other packet.
+     * Connections are grouped by stage, a frame is never shared between connections in different stages.
+     * Connections whose encoder is not the vanilla one, such as those behind a protocol translator, serialize the packet themselves.
+     *
+     * @param channels the channels of the connections
+     * @param packet the packet to send
+     */
+    public static void broadcast(@NotNull Collection<? extends Channel> channels, @NotNull Object packet) {
+        broadcast(channels, packet, false);
+    }
+
+    /**
+     * Sends a packet to many connections, serializing and compressing it only once.
+     * <p>
+     * When {@code fireEvents} is true, the packet is first passed to the outbound handlers and listeners
+     * of each connection on the event loop of the connection, and connections for which it is cancelled are skipped.
+     * The packet is then sent asynchronously, after this method has returned.
+     * A handler modifying the packet modifies a copy, which is then sent to its connection only,
+     * serialized separately from the shared frame; the same goes for a packet replaced by a handler.
+     *
+     * @param channels the channels of the connections
+     * @param packet the packet to send
+     * @param fireEvents true to fire outbound events for every connection
+     */
+    public static void broadcast(@NotNull Collection<? extends Channel> channels, @NotNull Object packet, boolean fireEvents) {
+        PacketBroadcaster.broadcast(unwrap(packet), channels, fireEvents);
+    }
+
+    /**
+     * Writes the original packet objects and flushes once.
+     *
+     * @param channel the channel of the connection
+     * @param handles the original packet objects
+     */
+    private static void sendAll(@NotNull Channel channel, @NotNull Object[] handles) {
+        if (handles.length == 0) return;
+
+        EventLoop eventLoop = channel.eventLoop();
+        if (eventLoop.inEventLoop()) {
+            write(channel, handles);
+        } else {
+            eventLoop.execute(() -> write(channel, handles));
+        }
+    }
+
+    /**
+     * Writes the original packet objects and flushes once. Must be called on the event loop of the channel.
+     *
+     * @param channel the channel of the connection
+     * @param handles the original packet objects
+     */
+    private static void write(@NotNull Channel channel, @NotNull Object[] handles) {
+        if (!channel.isActive()) return;
+
+        for (Object handle : handles) {
+            channel.write(handle, channel.voidPromise());
+        }
+        channel.flush();
+    }
+
+    /**
+     * Gets the channel of a player from its session.
+     *
+     * @param player the player
+     * @return the channel of the connection
+     * @throws IllegalArgumentException if the connection of the player is not intercepted
+     */
+    private static @NotNull Channel getChannel(@NotNull Player player) throws IllegalArgumentException {
+        PacketSession session = PacketSession.get(player);
+        if (session == null) throw new IllegalArgumentException(player.getName() + " is not intercepted");
+        return session.getChannel();
+    }
+
+    /**
+     * Gets the original packet object of a packet.
+     *
+     * @param packet the original packet object or its wrapper
+     * @return the original packet object
+     */
+    private static @NotNull Object unwrap(@NotNull Object packet) {
+        return packet instanceof Packet ? ((Packet) packet).getHandle() : packet;
+    }
+
+    /**
+     * This class cannot be instantiated!
+     */
+    private PacketSender() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+}
@@ -0,0 +1,323 @@
+package cc.meteormc.packetlistener;
+
+import cc.meteormc.packetlistener.helper.FieldAccessor;
+import cc.meteormc.packetlistener.helper.Reflection;
+import cc.meteormc.packetlistener.objects.PacketStage;
+import com.mojang.authlib.GameProfile;
+import io.netty.channel.Channel;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.RegisteredListener;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The state of an intercepted connection: its channel, profile, player and stage, along with data attached by plugins.
+ * <p>
+ * A session is created when the interceptor is injected and indexed by channel, then by profile id once the login succeeds
+ * and by player once the player has joined, so lookups in both directions are constant-time.
+ * It is removed from the indexes when the channel is closed.
+ *
+ * @author Meteor23333
+ */
+public final class PacketSession {
+    private static final Map<Channel, PacketSession> BY_CHANNEL = new ConcurrentHashMap<>();
+    private static final Map<UUID, PacketSession> BY_ID = new ConcurrentHashMap<>();
+
+    private final Channel channel;
+    private final boolean indexed;
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+    private volatile GameProfile profile;
+    private volatile Player player;
+    private volatile PacketStage stage = PacketStage.HANDSHAKE;
+
+    /**
+     * Creates a {@link PacketSession}.
+     *
+     * @param channel the channel of the connection
+     * @param indexed true if the session is indexed
+     */
+    private PacketSession(@NotNull Channel channel, boolean indexed) {
+        this.channel = channel;
+        this.indexed = indexed;
+    }
+
+    /**
+     * Creates the session of a connection and indexes it until the channel is closed.
+     *
+     * @param channel the channel of the connection
+     * @return the session
+     */
+    @ApiStatus.Internal
+    public static @NotNull PacketSession register(@NotNull Channel channel) {
+        PacketSession session = new PacketSession(channel, true);
+        BY_CHANNEL.put(channel, session);
+        channel.closeFuture().addListener(future -> session.unregister());
+        return session;
+    }
+
+    /**
+     * Creates the session of a connection that is not a real one, such as a replayed connection.
+     * It is never indexed, so it cannot be looked up and is not listed by {@link PacketSession#getAll()}.
+     *
+     * @param channel the channel of the connection
+     * @return the session
+     */
+    @ApiStatus.Internal
+    public static @NotNull PacketSession detached(@NotNull Channel channel) {
+        return new PacketSession(channel, false);
+    }
+
+    /**
+     * Gets the session of a connection.
+     *
+     * @param channel the channel of the connection
+     * @return the session, or {@code null} if the connection is not intercepted or already closed
+     */
+    public static @Nullable PacketSession get(@NotNull Channel channel) {
+        return BY_CHANNEL.get(channel);
+    }
+
+    /**
+     * Gets the session of a player.
+     *
+     * @param player the player
+     * @return the session, or {@code null} if the connection of the player is not intercepted or already closed
+     */
+    public static @Nullable PacketSession get(@NotNull Player player) {
+        return BY_ID.get(player.getUniqueId());
+    }
+
+    /**
+     * Gets the session of a profile id, available once the login has succeeded.
+     *
+     * @param id the profile id, which is also the unique id of the player
+     * @return the session, or {@code null} if no intercepted connection has logged in with this id
+     */
+    public static @Nullable PacketSession get(@NotNull UUID id) {
+        return BY_ID.get(id);
+    }
+
+    /**
+     * Gets the sessions of all open connections.
+     *
+     * @return an unmodifiable snapshot of the sessions
+     */
+    public static @NotNull Collection<PacketSession> getAll() {
+        return Collections.unmodifiableList(new ArrayList<>(BY_CHANNEL.values()));
+    }
+
+    /**
+     * Binds joining players to their sessions, once for every player.
+     * <p>
+     * The listener is registered to the handler list directly, so this also works before the owner is enabled;
+     * Bukkit starts calling it once the owner is enabled.
+     *
+     * @param owner the plugin using the PacketListener
+     */
+    static void bindPlayers(@NotNull Plugin owner) {
+        PlayerJoinEvent.getHandlerList().register(new RegisteredListener(
+                new Listener() {
+                },
+                (listener, event) -> {
+                    if (event instanceof PlayerJoinEvent) bind(((PlayerJoinEvent) event).getPlayer());
+                },
+                EventPriority.LOWEST, owner, false
+        ));
+    }
+
+    /**
+     * Binds a joining player to its session, by profile id, or by the channel of the player if the profile was never seen.
+     *
+     * @param player the joining player
+     */
+    private static void bind(@NotNull Player player) {
+        PacketSession session = BY_ID.get(player.getUniqueId());
+        if (session == null) {
+            Channel channel = getChannel(player);
+            if (channel != null) session = BY_CHANNEL.get(channel);
+        }
+        if (session != null) session.setPlayer(player);
+    }
+
+    /**
+     * Gets the channel of a player, following its entity to the player connection, then to the network manager.
+     * <p>
+     * The remote address cannot be used instead, as it is shared by all players behind a proxy or the same NAT.
+     *
+     * @param player the player
+     * @return the channel, or {@code null} if it cannot be found
+     */
+    private static @Nullable Channel getChannel(@NotNull Player player) {
+        try {
+            Object entity = player.getClass().getMethod("getHandle").invoke(player);
+            Class<?> entityClass = entity.getClass();
+            for (int i = 0; i < Reflection.getAccessorCount(entityClass); i++) {
+                FieldAccessor connection = Reflection.getAccessor(entityClass, i);
+                Class<?> connectionClass = connection.getField().getType();
+                if (!connectionClass.getName().startsWith("net.minecraft.")) continue;
+
+                for (int j = 0; j < Reflection.getAccessorCount(connectionClass); j++) {
+                    FieldAccessor manager = Reflection.getAccessor(connectionClass, j);
+                    Field channelField = Reflection.findField(manager.getField().getType(), Channel.class);
+                    if (channelField == null || !manager.getField().getType().getName().startsWith("net.minecraft.")) continue;
+
+                    Object connectionValue = connection.get(entity);
+                    Object managerValue = connectionValue == null ? null : manager.get(connectionValue);
+                    if (managerValue != null) return (Channel) channelField.get(managerValue);
+                }
+            }
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+            // Leave the player unbound rather than guessing.
+        }
+        return null;
+    }
+
+    /**
+     * Removes this session from the indexes.
+     */
+    private void unregister() {
+        BY_CHANNEL.remove(channel, this);
+        GameProfile profile = this.profile;
+        if (profile != null) BY_ID.remove(profile.getId(), this);
+        Player player = this.player;
+        if (player != null) BY_ID.remove(player.getUniqueId(), this);
+    }
+
+    /**
+     * Indexes this session by a unique id, unless the channel has already been closed.
+     *
+     * @param id the unique id
+     */
+    private void index(@NotNull UUID id) {
+        if (!indexed) return;
+        BY_ID.put(id, this);
+        if (!channel.isOpen()) unregister();
+    }
+
+    /**
+     * Gets the channel of the connection.
+     *
+     * @return the channel
+     */
+    public @NotNull Channel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Gets the profile of the connection.
+     *
+     * @return the profile, available once the client has started the login
+     */
+    public @Nullable GameProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Sets the profile of the connection. Called by the interceptor during the login.
+     *
+     * @param profile the profile
+     */
+    @ApiStatus.Internal
+    public void setProfile(@NotNull GameProfile profile) {
+        this.profile = profile;
+        if (profile.getId() != null) index(profile.getId());
+    }
+
+    /**
+     * Gets the player of the connection.
+     *
+     * @return the player, available once the player has joined
+     */
+    public @Nullable Player getPlayer() {
+        return player;
+    }
+
+    /**
+     * Sets the player of the connection. Called when the player joins.
+     *
+     * @param player the player
+     */
+    @ApiStatus.Internal
+    public void setPlayer(@NotNull Player player) {
+        this.player = player;
+        index(player.getUniqueId());
+    }
+
+    /**
+     * Gets the current stage of the connection, as far as it has been observed.
+     *
+     * @return the connection stage
+     */
+    public @NotNull PacketStage getStage() {
+        return stage;
+    }
+
+    /**
+     * Sets the current stage of the connection. Called by the interceptors on the event loop of the channel.
+     *
+     * @param stage the connection stage
+     */
+    @ApiStatus.Internal
+    public void setStage(@NotNull PacketStage stage) {
+        this.stage = stage;
+    }
+
+    /**
+     * Gets an attribute attached to this session.
+     *
+     * @param key the key of the attribute
+     * @return the value, or {@code null} if none
+     */
+    public @Nullable Object getAttribute(@NotNull String key) {
+        return attributes.get(key);
+    }
+
+    /**
+     * Gets an attribute attached to this session.
+     *
+     * @param key the key of the attribute
+     * @param type the type of the value
+     * @param <T> the type of the value
+     * @return the value, or {@code null} if none
+     * @throws ClassCastException if the value is not of the given type
+     */
+    public <T> @Nullable T getAttribute(@NotNull String key, @NotNull Class<T> type) throws ClassCastException {
+        return type.cast(attributes.get(key));
+    }
+
+    /**
+     * Attaches an attribute to this session, kept until the connection is closed.
+     * <p>
+     * Prefix keys with the name of the plugin to avoid clashes with other plugins.
+     *
+     * @param key the key of the attribute
+     * @param value the value, or {@code null} to remove the attribute
+     * @return the previous value, or {@code null} if none
+     */
+    public @Nullable Object setAttribute(@NotNull String key, @Nullable Object value) {
+        return value == null ? attributes.remove(key) : attributes.put(key, value);
+    }
+
+    @Override
+    public String toString() {
+        GameProfile profile = this.profile;
+        Player player = this.player;
+        return String.format(
+                "%s{channel=%s, profile=%s, player=%s, stage=%s}",
+                this.getClass().getSimpleName(),
+                this.channel,
+                profile == null ? null : profile.getName(),
+                player == null ? null : player.getName(),
+                this.stage
+        );
+    }
+}
@@ -0,0 +1,54 @@
+package cc.meteormc.packetlistener;
+
+import cc.meteormc.packetlistener.internal.TrafficCounter;
+import cc.meteormc.packetlistener.objects.TrafficSnapshot;
+import io.netty.channel.Channel;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+
+/**
+ * Traffic statistics of the intercepted connections, in packets and bytes, per direction and per packet type.
+ * <p>
+ * Counting is always on and costs a few array increments per packet.
+ * The counters of a connection are read without synchronization, so a snapshot may lag slightly behind the I/O threads.
+ *
+ * @author Meteor23333
+ */
+public class PacketStatistics {
+    /**
+     * Gets the traffic of the whole server since it started, including closed connections.
+     *
+     * @return the snapshot of the server-wide counters
+     */
+    public static @NotNull TrafficSnapshot getGlobal() {
+        return TrafficCounter.getGlobal();
+    }
+
+    /**
+     * Gets the traffic of a connection since it was opened.
+     *
+     * @param channel the channel of the connection
+     * @return the snapshot of the counters of the connection, or {@code null} if it is not intercepted or already closed
+     */
+    public static @Nullable TrafficSnapshot get(@NotNull Channel channel) {
+        return TrafficCounter.get(channel);
+    }
+
+    /**
+     * Gets the traffic of every open connection.
+     *
+     * @return the snapshots of the counters by channel
+     */
+    public static @NotNull Map<Channel, TrafficSnapshot> getAll() {
+        return TrafficCounter.getAll();
+    }
+
+    /**
+     * This class cannot be instantiated!
+     */
+    private PacketStatistics() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+}
@@ -0,0 +1,167 @@
+package cc.meteormc.packetlistener;
+
+import cc.meteormc.packetlistener.internal.PacketDispatcher;
+import cc.meteormc.packetlistener.objects.PacketDirection;
+import cc.meteormc.packetlistener.objects.PacketStage;
+import cc.meteormc.packetlistener.objects.PacketType;
+import org.bukkit.event.EventPriority;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A registered {@link PacketHandler} together with the packets it is interested in.
+ *
+ * @author Meteor23333
+ */
+public class PacketSubscription {
+    private final Plugin plugin;
+    private final PacketDirection direction;
+    private final PacketStage stage;
+    private final String name;
+    private final PacketType type;
+    private final EventPriority priority;
+    private final boolean ignoreCancelled;
+    private final boolean async;
+    private final PacketHandler handler;
+
+    /**
+     * Creates a {@link PacketSubscription}.
+     *
+     * @param plugin the plugin owning the handler
+     * @param direction the direction of the packets
+     * @param stage the stage of the packets, or {@code null} to match any stage
+     * @param name the simple name of the packets, or {@code null} to match any name
+     * @param type the exact type of the packets, or {@code null} to match by the other properties
+     * @param priority the priority of the handler
+     * @param ignoreCancelled true if the handler should not receive cancelled packets
+     * @param async true if the handler is called off the Netty I/O thread
+     * @param handler the handler
+     */
+    PacketSubscription(@NotNull Plugin plugin, @NotNull PacketDirection direction, @Nullable PacketStage stage, @Nullable String name, @Nullable PacketType type, @NotNull EventPriority priority, boolean ignoreCancelled, boolean async, @NotNull PacketHandler handler) {
+        this.plugin = plugin;
+        this.direction = direction;
+        this.stage = stage;
+        this.name = name;
+        this.type = type;
+        this.priority = priority;
+        this.ignoreCancelled = ignoreCancelled;
+        this.async = async;
+        this.handler = handler;
+    }
+
+    /**
+     * Checks whether the given packet type is handled by this subscription.
+     *
+     * @param type the packet type
+     * @return true if the packet type matches
+     * @see PacketSubscription#matches(PacketType, PacketStage)
+     */
+    public boolean matches(@NotNull PacketType type) {
+        return matches(type, type.getStage());
+    }
+
+    /**
+     * Checks whether the given packet type is handled by this subscription, when received or sent in the given stage.
+     * <p>
+     * This is only evaluated once per packet type and stage, the result is cached by the dispatcher.
+     *
+     * @param type the packet type
+     * @param stage the stage of the connection
+     * @return true if the packet type matches
+     */
+    public boolean matches(@NotNull PacketType type, @NotNull PacketStage stage) {
+        if (this.type != null) return this.type == type;
+        if (this.direction != type.getDirection()) return false;
+        if (this.stage != null && this.stage != stage) return false;
+        return this.name == null || this.name.equalsIgnoreCase(type.getName());
+    }
+
+    /**
+     * Creates an asynchronous copy of this subscription, used when a slow handler is demoted.
+     *
+     * @return a new subscription with the same handler and packets, delivered asynchronously
+     */
+    @NotNull PacketSubscription toAsync() {
+        return new PacketSubscription(plugin, direction, stage, name, type, EventPriority.MONITOR, ignoreCancelled, true, handler);
+    }
+
+    /**
+     * Removes this subscription, the handler will no longer be called.
+     */
+    public void unsubscribe() {
+        PacketDispatcher.unsubscribe(this);
+    }
+
+    /**
+     * Gets the plugin owning the handler.
+     *
+     * @return the plugin
+     */
+    public @NotNull Plugin getPlugin() {
+        return plugin;
+    }
+
+    /**
+     * Gets the direction of the packets.
+     *
+     * @return the packet direction
+     */
+    public @NotNull PacketDirection getDirection() {
+        return direction;
+    }
+
+    /**
+     * Gets the priority of the handler.
+     *
+     * @return the priority
+     */
+    public @NotNull EventPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Gets whether the handler ignores cancelled packets.
+     *
+     * @return true if the handler should not receive cancelled packets
+     */
+    public boolean isIgnoringCancelled() {
+        return ignoreCancelled;
+    }
+
+    /**
+     * Gets whether the handler is called asynchronously.
+     * <p>
+     * Asynchronous handlers only monitor packets, they are called after all other handlers on a separate executor
+     * and cannot cancel the packet.
+     *
+     * @return true if the handler is called off the Netty I/O thread
+     */
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * Gets the handler.
+     *
+     * @return the handler
+     */
+    public @NotNull PacketHandler getHandler() {
+        return handler;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s{plugin=%s, direction=%s, stage=%s, name=%s, type=%s, priority=%s, async=%s}",
+                this.getClass().getSimpleName(),
+                this.plugin.getName(),
+                this.direction,
+                this.stage,
+                this.name,
+                this.type,
+                this.priority,
+                this.async
+        );
+    }
+}
@@ -0,0 +1,34 @@
+package cc.meteormc.packetlistener;
+
+import cc.meteormc.packetlistener.objects.PacketDirection;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A handler of serialized packets, called before the server decodes inbound packets
+ * and after it has encoded outbound packets.
+ * <p>
+ * This is useful for traffic accounting, filtering and flood detection,
+ * without paying for the decoding of packets that are going to be dropped anyway.
+ *
+ * @author Meteor23333
+ * @see PacketListener#subscribeRaw(org.bukkit.plugin.Plugin, PacketDirection, RawPacketHandler)
+ */
+@FunctionalInterface
+public interface RawPacketHandler {
+    /**
+     * Handles a serialized packet.
+     * <p>
+     * This method is called on the Netty I/O thread of the connection.
+     * The payload is a read-only view of the frame, without copying; it must not be retained or released.
+     *
+     * @param ctx the ctx, representing the handler's context in the pipeline
+     * @param direction the direction of the packet
+     * @param packetId the protocol id of the packet in the current stage of the connection
+     * @param payload the packet content following the packet id
+     * @return true to drop the packet
+     * @throws Exception thrown if an error occurs
+     */
+    boolean handle(@NotNull ChannelHandlerContext ctx, @NotNull PacketDirection direction, int packetId, @NotNull ByteBuf payload) throws Exception;
+}
@@ -0,0 +1,32 @@
+package cc.meteormc.packetlistener;
+
+import cc.meteormc.packetlistener.internal.CaptureReplay;
+import cc.meteormc.packetlistener.objects.PacketDirection;
+import io.netty.channel.ChannelHandler;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Creates the decoders turning captured frames back into packet objects during a replay.
+ * <p>
+ * A decoder receives uncompressed frames starting with the packet id, exactly as the server decoder does,
+ * and passes the decoded packets on with {@link io.netty.channel.ChannelHandlerContext#fireChannelRead(Object)}.
+ * The stage of each frame is available from the {@link CaptureReplay#STAGE} attribute of the channel,
+ * so a server decoder can be wrapped by a handler setting the protocol attribute it expects.
+ *
+ * @author Meteor23333
+ * @see PacketCapture#replay(java.util.List, ReplayDecoderFactory, double)
+ */
+@FunctionalInterface
+public interface ReplayDecoderFactory {
+    /**
+     * Creates a decoder for one direction of a replayed connection.
+     * <p>
+     * This method is called once per connection and direction.
+     *
+     * @param direction the direction of the packets to decode
+     * @return a new decoder, or {@code null} to replay the packets of this direction to the raw handlers only
+     * @throws Exception thrown if an error occurs
+     */
+    @Nullable ChannelHandler create(@NotNull PacketDirection direction) throws Exception;
+}
@@ -0,0 +1,25 @@
+package cc.meteormc.packetlistener;
+
+/**
+ * Decides what happens to a listener that repeatedly exceeds the slow listener threshold on the Netty I/O thread.
+ *
+ * @author Meteor23333
+ * @see ListenerProfiler#configure(long, java.util.concurrent.TimeUnit, SlowListenerPolicy, int)
+ */
+public enum SlowListenerPolicy {
+    /**
+     * The listener is only reported in the log.
+     */
+    WARN,
+    /**
+     * The listener is moved off the Netty I/O thread and receives the packets asynchronously from then on,
+     * like a handler subscribed with {@link PacketListener#subscribeAsync(org.bukkit.plugin.Plugin, cc.meteormc.packetlistener.objects.PacketDirection, cc.meteormc.packetlistener.objects.PacketStage, String, PacketHandler)}.
+     * It can no longer cancel packets.
+     * A Bukkit listener then receives the packets of all types of its direction.
+     */
+    DEMOTE,
+    /**
+     * The listener is unregistered.
+     */
+    DISABLE
+}
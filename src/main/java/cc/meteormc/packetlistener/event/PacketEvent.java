@@ -7,19 +7,23 @@ import io.netty.channel.ChannelHandlerContext;
 import org.bukkit.entity.Player;
 import org.bukkit.event.Cancellable;
 import org.bukkit.event.Event;
+import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 /**
- * Internal abstract packet event.
+ * Base class of packet events, shared by the Bukkit events and the native {@code PacketHandler}s.
+ * <p>
+ * When event reuse is enabled, the interceptor reuses the event and its {@link Packet} for the next packet
+ * of the same connection. Do not retain them after the handler returns, use {@link PacketEvent#snapshot()} instead.
  *
  * @author Meteor23333
  */
-abstract class PacketEvent extends Event implements Cancellable {
-    private final ChannelHandlerContext ctx;
-    private final GameProfile profile;
-    private final Player player;
-    private final Packet packet;
+public abstract class PacketEvent extends Event implements Cancellable {
+    private ChannelHandlerContext ctx;
+    private GameProfile profile;
+    private Player player;
+    private Packet packet;
     private boolean cancelled = false;
 
     /**
@@ -37,6 +41,34 @@ abstract class PacketEvent extends Event implements Cancellable {
         this.packet = packet;
     }
 
+    /**
+     * Prepares this event for another packet and clears the cancellation state.
+     * <p>
+     * This is used by the interceptor when event reuse is enabled, plugins should never call it.
+     *
+     * @param ctx the ctx, representing the handler's context in the pipeline
+     * @param profile the profile, available after the client and server have completed the handshake
+     * @param player the player, available after the client and server have completed the login process
+     * @param packet the packet
+     */
+    @ApiStatus.Internal
+    public void reset(@NotNull ChannelHandlerContext ctx, @Nullable GameProfile profile, @Nullable Player player, @NotNull Packet packet) {
+        this.ctx = ctx;
+        this.profile = profile;
+        this.player = player;
+        this.packet = packet;
+        this.cancelled = false;
+    }
+
+    /**
+     * Creates an independent copy of this event, including a copy of its packet wrapper and its cancellation state.
+     * <p>
+     * Use this to keep an event beyond the handler call when event reuse is enabled.
+     *
+     * @return a new event with the same content
+     */
+    public abstract @NotNull PacketEvent snapshot();
+
     /**
      * Gets the {@link ChannelHandlerContext} for this packet activity.
      * Typically used during the {@link PacketStage#HANDSHAKE} stage.
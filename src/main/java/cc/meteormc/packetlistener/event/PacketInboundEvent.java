@@ -28,6 +28,13 @@ public class PacketInboundEvent extends PacketEvent {
         super(ctx, profile, player, packet);
     }
 
+    @Override
+    public @NotNull PacketInboundEvent snapshot() {
+        PacketInboundEvent snapshot = new PacketInboundEvent(this.getCtx(), this.getProfile(), this.getPlayer(), this.getPacket().snapshot());
+        snapshot.setCancelled(this.isCancelled());
+        return snapshot;
+    }
+
     @NotNull
     @Override
     public HandlerList getHandlers() {
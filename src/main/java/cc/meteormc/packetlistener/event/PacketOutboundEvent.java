@@ -10,6 +10,9 @@ import org.jetbrains.annotations.Nullable;
 
 /**
  * Packet outbound event.
+ * <p>
+ * The packet is copy-on-write, so modifying it only affects the connection of this event,
+ * even if the server sends the same packet object to other connections.
  *
  * @author Meteor23333
  */
@@ -28,6 +31,13 @@ public class PacketOutboundEvent extends PacketEvent {
         super(ctx, profile, player, packet);
     }
 
+    @Override
+    public @NotNull PacketOutboundEvent snapshot() {
+        PacketOutboundEvent snapshot = new PacketOutboundEvent(this.getCtx(), this.getProfile(), this.getPlayer(), this.getPacket().snapshot());
+        snapshot.setCancelled(this.isCancelled());
+        return snapshot;
+    }
+
     @NotNull
     @Override
     public HandlerList getHandlers() {
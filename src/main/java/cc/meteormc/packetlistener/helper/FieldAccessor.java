@@ -0,0 +1,117 @@
+package cc.meteormc.packetlistener.helper;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * A compiled accessor of a non-static field, backed by {@link MethodHandle}s.
+ * <p>
+ * Accessors are created once per field by {@link Reflection} and are safe to share between threads.
+ *
+ * @author Meteor23333
+ */
+public final class FieldAccessor {
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private final Field field;
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+
+    /**
+     * Creates a {@link FieldAccessor}.
+     *
+     * @param field the field to access, must already be accessible
+     */
+    FieldAccessor(@NotNull Field field) {
+        this.field = field;
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        this.getter = unreflect(lookup, field, false);
+        this.setter = unreflect(lookup, field, true);
+    }
+
+    /**
+     * Gets the field this accessor is associated with.
+     *
+     * @return the field
+     */
+    public @NotNull Field getField() {
+        return field;
+    }
+
+    /**
+     * Gets the value of the field in the given object.
+     *
+     * @param target the object to read the field from
+     * @return the value of the field
+     * @throws IllegalArgumentException if the field cannot be read from the given object
+     */
+    public @Nullable Object get(@NotNull Object target) throws IllegalArgumentException {
+        if (getter == null) throw new IllegalArgumentException("Cannot read field " + field);
+        try {
+            return getter.invokeExact(target);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalArgumentException("Cannot read field " + field, e);
+        }
+    }
+
+    /**
+     * Sets the value of the field in the given object.
+     *
+     * @param target the object to write the field to
+     * @param value the new value of the field
+     * @throws IllegalArgumentException if the field cannot be written to the given object
+     */
+    public void set(@NotNull Object target, @Nullable Object value) throws IllegalArgumentException {
+        if (setter == null) {
+            // Method handles refuse to write final fields, which reflection still allows once the field is accessible.
+            try {
+                field.set(target, value);
+                return;
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("Cannot write field " + field, e);
+            }
+        }
+
+        try {
+            setter.invokeExact(target, value);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalArgumentException("Cannot write field " + field, e);
+        }
+    }
+
+    /**
+     * Converts the field into a getter or setter with an erased signature.
+     *
+     * @param lookup the lookup used to unreflect
+     * @param field the field to unreflect
+     * @param setter true to create a setter
+     * @return the method handle, or {@code null} if the access is denied
+     */
+    private static @Nullable MethodHandle unreflect(MethodHandles.Lookup lookup, Field field, boolean setter) {
+        try {
+            if (setter) return lookup.unreflectSetter(field).asType(SETTER_TYPE);
+            else return lookup.unreflectGetter(field).asType(GETTER_TYPE);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s{field=%s}",
+                this.getClass().getSimpleName(),
+                this.field
+        );
+    }
+}
@@ -3,11 +3,18 @@ package cc.meteormc.packetlistener.helper;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A reflection helper class providing some additional functionalities.
@@ -15,6 +22,15 @@ import java.util.List;
  * @author Meteor23333
  */
 public class Reflection {
+    private static final FieldAccessor[] NO_ACCESSORS = new FieldAccessor[0];
+    private static final ClassValue<AccessorTable> ACCESSORS = new ClassValue<AccessorTable>() {
+        @Override
+        protected AccessorTable computeValue(Class<?> type) {
+            return new AccessorTable(type);
+        }
+    };
+    private static final MethodHandle ALLOCATOR = findAllocator();
+
     /**
      * Finds a field of the specified type name from the given class.
      * <p>
@@ -68,6 +84,8 @@ public class Reflection {
 
     /**
      * Finds a field of the specified type from the given class.
+     * <p>
+     * The result is cached per class, so only the first lookup scans the class hierarchy.
      *
      * @param clazz the class to search for the field
      * @param type the type of the field to find
@@ -75,21 +93,14 @@ public class Reflection {
      * @throws SecurityException if the request is denied
      */
     public static @Nullable Field findField(Class<?> clazz, Class<?> type) throws SecurityException {
-        for (Field field : clazz.getDeclaredFields()) {
-            if (Modifier.isStatic(field.getModifiers())) continue;
-            if (!field.getType().equals(type)) continue;
-            field.setAccessible(true);
-            return field;
-        }
-
-        // Ensures all fields are searched.
-        Class<?> superclass = clazz.getSuperclass();
-        if (superclass != null) return findField(superclass, type);
-        else return null;
+        Field[] fields = ACCESSORS.get(clazz).fieldsByType.get(type);
+        return fields == null ? null : fields[0];
     }
 
     /**
      * Finds all fields of the specified type from the given class.
+     * <p>
+     * The result is cached per class, so only the first lookup scans the class hierarchy.
      *
      * @param clazz the class to search for fields in
      * @param type the type of the fields to find
@@ -97,18 +108,198 @@ public class Reflection {
      * @throws SecurityException if the request is denied
      */
     public static @NotNull Field[] findFields(Class<?> clazz, Class<?> type) throws SecurityException {
-        List<Field> fields = new ArrayList<>();
-        for (Field field : clazz.getDeclaredFields()) {
-            if (Modifier.isStatic(field.getModifiers())) continue;
-            if (!field.getType().equals(type)) continue;
+        Field[] fields = ACCESSORS.get(clazz).fieldsByType.get(type);
+        return fields == null ? new Field[0] : fields.clone();
+    }
+
+    /**
+     * Gets the accessor of the non-static field at the specified position of the given class.
+     * <p>
+     * Fields are ordered as they are declared in the class, followed by the fields of its superclasses.
+     * The accessors are built once per class and cached.
+     *
+     * @param clazz the class to get the accessor from
+     * @param position the zero-based index of the field
+     * @return the accessor of the field at the specified position
+     * @throws IndexOutOfBoundsException if the position is out of range
+     */
+    public static @NotNull FieldAccessor getAccessor(Class<?> clazz, int position) throws IndexOutOfBoundsException {
+        return ACCESSORS.get(clazz).all[position];
+    }
+
+    /**
+     * Gets the number of non-static fields of the given class, including the fields of its superclasses.
+     *
+     * @param clazz the class to count the fields of
+     * @return the number of fields
+     */
+    public static int getAccessorCount(Class<?> clazz) {
+        return ACCESSORS.get(clazz).all.length;
+    }
+
+    /**
+     * Gets the accessor of the {@code position}-th non-static field whose type exactly matches {@code type} of the given class.
+     * <p>
+     * Fields are ordered as they are declared in the class, followed by the fields of its superclasses.
+     * The accessors are built once per class and cached.
+     *
+     * @param clazz the class to get the accessor from
+     * @param type the type of the field
+     * @param position the zero-based index among all fields of the specified type
+     * @return the accessor of the field at the specified position
+     * @throws IndexOutOfBoundsException if the position is out of range
+     */
+    public static @NotNull FieldAccessor findAccessor(Class<?> clazz, Class<?> type, int position) throws IndexOutOfBoundsException {
+        return ACCESSORS.get(clazz).byType.getOrDefault(type, NO_ACCESSORS)[position];
+    }
+
+    /**
+     * Creates a shallow copy of the given object, without calling any constructor.
+     * <p>
+     * All non-static fields, including those of the superclasses, are copied with the cached accessors of the class,
+     * so the objects they refer to are shared between the original and the copy.
+     * Records are the exception: their fields cannot be written, so they are copied through their canonical constructor.
+     *
+     * @param object the object to copy
+     * @return the copy, of the same class as the object
+     * @param <T> the type of the object
+     * @throws IllegalArgumentException if the class cannot be instantiated or one of its fields cannot be copied
+     */
+    public static <T> @NotNull T copy(@NotNull T object) throws IllegalArgumentException {
+        Class<?> clazz = object.getClass();
+        AccessorTable table = ACCESSORS.get(clazz);
+        if (table.record) return copyRecord(object, table);
+        if (ALLOCATOR == null) throw new IllegalArgumentException("Cannot instantiate " + clazz.getName());
+
+        Object copy;
+        try {
+            copy = ALLOCATOR.invokeExact(clazz);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalArgumentException("Cannot instantiate " + clazz.getName(), e);
+        }
+        for (FieldAccessor accessor : table.all) {
+            accessor.set(copy, accessor.get(object));
+        }
+        //noinspection unchecked
+        return (T) copy;
+    }
+
+    /**
+     * Creates a copy of a record through its canonical constructor, as the final fields of records cannot be written.
+     *
+     * @param record the record to copy
+     * @param table the accessors of the record class
+     * @return the copy
+     * @param <T> the type of the record
+     * @throws IllegalArgumentException if the canonical constructor cannot be called
+     */
+    private static <T> @NotNull T copyRecord(@NotNull T record, @NotNull AccessorTable table) throws IllegalArgumentException {
+        String name = record.getClass().getName();
+        if (table.canonical == null) throw new IllegalArgumentException("Cannot copy record " + name + ", its canonical constructor is not accessible");
+
+        // The fields of a record are its components, declared in the order of the canonical constructor parameters.
+        Object[] values = new Object[table.all.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = table.all[i].get(record);
+        }
+        try {
+            //noinspection unchecked
+            return (T) table.canonical.newInstance(values);
+        } catch (InvocationTargetException e) {
+            throw new IllegalArgumentException("Cannot copy record " + name, e.getCause());
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IllegalArgumentException("Cannot copy record " + name, e);
+        }
+    }
+
+    /**
+     * Finds {@code Unsafe#allocateInstance}, which creates an object without calling any of its constructors.
+     *
+     * @return the method bound to the unsafe instance, or {@code null} if unavailable
+     */
+    private static @Nullable MethodHandle findAllocator() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
             field.setAccessible(true);
-            fields.add(field);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "allocateInstance", MethodType.methodType(Object.class, Class.class))
+                    .bindTo(field.get(null));
+        } catch (Throwable e) {
+            return null;
         }
+    }
 
-        // Ensures all fields are searched.
-        Class<?> superclass = clazz.getSuperclass();
-        if (superclass != null) fields.addAll(Arrays.asList(findFields(superclass, type)));
-        return fields.toArray(new Field[0]);
+    /**
+     * The accessors of all non-static fields of a class, built once per class.
+     * <p>
+     * It is stored in a {@link ClassValue}, so it is released together with the class,
+     * and the type index only contains the types actually declared, so it cannot grow by lookups.
+     */
+    private static class AccessorTable {
+        private final FieldAccessor[] all;
+        private final Map<Class<?>, FieldAccessor[]> byType = new HashMap<>();
+        private final Map<Class<?>, Field[]> fieldsByType = new HashMap<>();
+        private final boolean record;
+        private final Constructor<?> canonical;
+
+        private AccessorTable(Class<?> clazz) {
+            List<FieldAccessor> all = new ArrayList<>();
+            Map<Class<?>, List<FieldAccessor>> byType = new HashMap<>();
+            for (Class<?> current = clazz; current != null; current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) continue;
+                    try {
+                        field.setAccessible(true);
+                    } catch (RuntimeException ignored) {
+                        // Keep the position, the accessor will report the failure when used.
+                    }
+
+                    FieldAccessor accessor = new FieldAccessor(field);
+                    all.add(accessor);
+                    byType.computeIfAbsent(field.getType(), type -> new ArrayList<>()).add(accessor);
+                }
+            }
+
+            this.all = all.toArray(NO_ACCESSORS);
+            byType.forEach((type, accessors) -> {
+                FieldAccessor[] array = accessors.toArray(NO_ACCESSORS);
+                Field[] fields = new Field[array.length];
+                for (int i = 0; i < array.length; i++) {
+                    fields[i] = array[i].getField();
+                }
+                this.byType.put(type, array);
+                this.fieldsByType.put(type, fields);
+            });
+
+            // Records exist since Java 16, detect them by their superclass to keep running on Java 8.
+            Class<?> superclass = clazz.getSuperclass();
+            this.record = superclass != null && superclass.getName().equals("java.lang.Record");
+            this.canonical = record ? findCanonical(clazz, this.all) : null;
+        }
+
+        /**
+         * Finds the canonical constructor of a record, whose parameters are the types of its fields in declaration order.
+         *
+         * @param clazz the record class
+         * @param fields the accessors of its fields
+         * @return the constructor, or {@code null} if it cannot be accessed
+         */
+        private static @Nullable Constructor<?> findCanonical(Class<?> clazz, FieldAccessor[] fields) {
+            Class<?>[] types = new Class<?>[fields.length];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = fields[i].getField().getType();
+            }
+            try {
+                Constructor<?> constructor = clazz.getDeclaredConstructor(types);
+                constructor.setAccessible(true);
+                return constructor;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return null;
+            }
+        }
     }
 
     /**
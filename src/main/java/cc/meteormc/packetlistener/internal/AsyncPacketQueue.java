@@ -0,0 +1,178 @@
+package cc.meteormc.packetlistener.internal;
+
+import cc.meteormc.packetlistener.OverflowPolicy;
+import cc.meteormc.packetlistener.PacketListener;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * A bounded queue delivering the packets of one connection to the asynchronous handlers in FIFO order.
+ * <p>
+ * Queues are drained on a shared executor, at most one task per queue at a time,
+ * so the packets of a connection are never handled concurrently or out of order.
+ *
+ * @author Meteor23333
+ */
+public class AsyncPacketQueue {
+    private static final int SAMPLE_RATE = 8;
+    private static final long MAX_BLOCK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private static volatile int capacity = 1024;
+    private static volatile OverflowPolicy policy = OverflowPolicy.DROP;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    // Packets may be dispatched from other threads than the event loop, so the sampling counter is shared.
+    private final AtomicInteger sampleCounter = new AtomicInteger();
+    // Set once a blocking offer timed out, until the queue has room again, so that offers drop at once meanwhile.
+    private volatile boolean stalled;
+
+    /**
+     * Configures all asynchronous delivery queues.
+     *
+     * @param capacity the maximum number of pending packets per connection
+     * @param policy the policy applied when a queue is full
+     */
+    public static void configure(int capacity, @NotNull OverflowPolicy policy) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive");
+        AsyncPacketQueue.capacity = capacity;
+        AsyncPacketQueue.policy = policy;
+    }
+
+    /**
+     * Offers a task to the queue. Usually called from the Netty I/O thread of the connection, but safe from any thread.
+     *
+     * @param task the task delivering a packet
+     * @return true if the task was accepted, false if it was dropped according to the {@link OverflowPolicy}
+     */
+    boolean offer(@NotNull Runnable task) {
+        int capacity = AsyncPacketQueue.capacity;
+        int size = pending.get();
+        switch (policy) {
+            case BLOCK:
+                if (size < capacity) stalled = false;
+                else if (!awaitRoom(capacity)) return false;
+                break;
+            case SAMPLE:
+                if (size >= capacity) return false;
+                if (size >= capacity / 2 && sampleCounter.incrementAndGet() % SAMPLE_RATE != 0) return false;
+                break;
+            default:
+                if (size >= capacity) return false;
+        }
+
+        pending.incrementAndGet();
+        tasks.offer(task);
+        schedule();
+        return true;
+    }
+
+    /**
+     * Blocks until the number of pending tasks drops below the capacity, for a bounded time,
+     * so that a hung handler cannot freeze the event loop and every connection on it.
+     * Once a wait has timed out, no further wait happens until the queue has had room again.
+     *
+     * @param capacity the capacity
+     * @return true if there is room, false if the wait timed out or the queue is stalled
+     */
+    private boolean awaitRoom(int capacity) {
+        if (stalled) return false;
+        synchronized (this) {
+            long deadline = System.nanoTime() + MAX_BLOCK_NANOS;
+            boolean interrupted = false;
+            try {
+                while (pending.get() >= capacity) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        stalled = true;
+                        PacketListener.getLogger().log(Level.WARNING, "The asynchronous handlers did not keep up for "
+                                + TimeUnit.NANOSECONDS.toMillis(MAX_BLOCK_NANOS) + "ms, dropping packets until they catch up");
+                        return false;
+                    }
+                    try {
+                        this.wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                return true;
+            } finally {
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Submits a drain task to the executor unless one is already running.
+     */
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            Holder.EXECUTOR.execute(this::drain);
+        }
+    }
+
+    /**
+     * Runs all pending tasks in order.
+     */
+    private void drain() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                PacketListener.getLogger().log(Level.SEVERE, "An exception occurred while handling a packet asynchronously!", e);
+            }
+
+            pending.decrementAndGet();
+            if (policy == OverflowPolicy.BLOCK) {
+                synchronized (this) {
+                    this.notifyAll();
+                }
+            }
+        }
+
+        scheduled.set(false);
+        // A task may have been offered between the last poll and releasing the flag.
+        if (!tasks.isEmpty()) schedule();
+    }
+
+    /**
+     * Lazily creates the shared executor.
+     */
+    private static class Holder {
+        private static final ExecutorService EXECUTOR = createExecutor();
+
+        /**
+         * Creates a virtual thread executor where available, otherwise a bounded pool of daemon threads.
+         *
+         * @return the executor
+         */
+        private static ExecutorService createExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException ignored) {
+            }
+
+            AtomicInteger counter = new AtomicInteger();
+            ThreadFactory factory = runnable -> {
+                Thread thread = new Thread(runnable, "PacketListener-Async-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+            return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), factory);
+        }
+    }
+}
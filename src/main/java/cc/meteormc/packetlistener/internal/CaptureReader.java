@@ -0,0 +1,122 @@
+package cc.meteormc.packetlistener.internal;
+
+import cc.meteormc.packetlistener.objects.CapturedPacket;
+import cc.meteormc.packetlistener.objects.PacketDirection;
+import cc.meteormc.packetlistener.objects.PacketStage;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Reads the records of a capture file written by {@link CaptureWriter}.
+ * <p>
+ * The ring is scanned from its start, 8 bytes at a time wherever no record begins,
+ * so that the tail of a record partially overwritten by a newer one is skipped.
+ * A record is kept only if its position matches its offset in the ring and lies within the last lap of the ring.
+ *
+ * @author Meteor23333
+ */
+public class CaptureReader {
+    /**
+     * Reads all complete records of a capture file.
+     * The file may belong to a running capture, in which case the records being written are skipped.
+     *
+     * @param path the capture file
+     * @return the records, ordered by position
+     * @throws IOException thrown if the file cannot be read or is not a capture file
+     */
+    public static @NotNull List<CapturedPacket> read(@NotNull Path path) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (file.size() < CaptureWriter.FILE_HEADER) throw new IOException(path + " is not a capture file");
+            buffer = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+        }
+
+        if (buffer.getLong(0) != CaptureWriter.MAGIC) throw new IOException(path + " is not a capture file");
+        int version = buffer.getInt(8);
+        if (version != CaptureWriter.VERSION) throw new IOException("Unsupported capture version: " + version);
+        int header = buffer.getInt(12);
+        long capacity = buffer.getLong(16);
+        if (header < CaptureWriter.FILE_HEADER || capacity <= 0 || header + capacity > buffer.capacity()) {
+            throw new IOException(path + " is truncated");
+        }
+
+        List<CapturedPacket> packets = new ArrayList<>();
+        long end = buffer.getLong(32);
+        int offset = 0;
+        while (offset + 8 <= capacity) {
+            int base = header + offset;
+            int magic = buffer.getInt(base);
+            int length = buffer.getInt(base + 4);
+            boolean valid = length >= 8 && (length & 7) == 0 && offset + (long) length <= capacity;
+            if (valid && magic == CaptureWriter.PADDING_MAGIC) {
+                offset += length;
+                continue;
+            }
+            if (valid && magic == CaptureWriter.RECORD_MAGIC && length >= CaptureWriter.RECORD_HEADER) {
+                CapturedPacket packet = readRecord(buffer, base, length);
+                // In a live file, the record may have been overwritten while it was read: its magic is cleared first,
+                // and a record written since has another position.
+                boolean intact = packet != null && buffer.getInt(base) == CaptureWriter.RECORD_MAGIC && buffer.getLong(base + 8) == packet.getPosition();
+                if (intact && packet.getPosition() % capacity == offset) {
+                    packets.add(packet);
+                    // A running capture has not written its end position yet.
+                    end = Math.max(end, packet.getPosition() + length);
+                    offset += length;
+                    continue;
+                }
+            }
+            offset += 8;
+        }
+
+        long last = end;
+        long first = last - capacity;
+        packets.removeIf(packet -> packet.getPosition() < first || packet.getPosition() >= last);
+        packets.sort(Comparator.comparingLong(CapturedPacket::getPosition));
+        return packets;
+    }
+
+    /**
+     * Reads a record at the given index.
+     *
+     * @param buffer the mapped file
+     * @param base the index of the record in the file
+     * @param length the aligned length of the record
+     * @return the record, or {@code null} if the header is inconsistent
+     */
+    private static @Nullable CapturedPacket readRecord(@NotNull ByteBuffer buffer, int base, int length) {
+        long position = buffer.getLong(base + 8);
+        long nanos = buffer.getLong(base + 16);
+        int connectionId = buffer.getInt(base + 24);
+        int direction = buffer.get(base + 28);
+        int stage = buffer.get(base + 29);
+        int packetId = buffer.getInt(base + 32);
+        int payload = buffer.getInt(base + 36);
+
+        PacketDirection[] directions = PacketDirection.values();
+        PacketStage[] stages = PacketStage.values();
+        if (position < 0 || payload < 0 || payload > length - CaptureWriter.RECORD_HEADER) return null;
+        if (direction < 0 || direction >= directions.length || stage < 0 || stage >= stages.length) return null;
+
+        byte[] frame = new byte[payload];
+        ByteBuffer view = buffer.duplicate();
+        view.position(base + CaptureWriter.RECORD_HEADER);
+        view.get(frame);
+        return new CapturedPacket(position, nanos, connectionId, directions[direction], stages[stage], packetId, frame);
+    }
+
+    /**
+     * This class cannot be instantiated!
+     */
+    private CaptureReader() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+}
@@ -0,0 +1,201 @@
+package cc.meteormc.packetlistener.internal;
+
+import cc.meteormc.packetlistener.PacketListener;
+import cc.meteormc.packetlistener.ReplayDecoderFactory;
+import cc.meteormc.packetlistener.objects.CapturedPacket;
+import cc.meteormc.packetlistener.objects.PacketDirection;
+import cc.meteormc.packetlistener.objects.PacketStage;
+import cc.meteormc.packetlistener.objects.ReplayReport;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.*;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+/**
+ * Feeds captured traffic back through the interceptors, to benchmark listeners against real traffic
+ * or to reproduce an incident offline.
+ * <p>
+ * Each captured connection is replayed on its own {@link EmbeddedChannel}, laid out like a server pipeline:
+ * {@code packetlistener_raw_inbound -> decoder -> packetlistener_raw_outbound -> encoder -> packetlistener_interceptor -> packet_handler}.
+ * Inbound frames are read from the head, through the decoder created by the {@link ReplayDecoderFactory},
+ * and swallowed by the packet handler. Outbound frames are decoded by a separate decoder and written from the tail,
+ * the encoder substitutes the captured frame for the packet so that the raw handlers see the original bytes.
+ * <p>
+ * All packets are replayed on the calling thread in the order of the capture, so the order of each connection is deterministic.
+ *
+ * @author Meteor23333
+ */
+public class CaptureReplay {
+    /**
+     * The stage of the frame being replayed, set on the replayed channels before each frame.
+     */
+    public static final AttributeKey<PacketStage> STAGE = AttributeKey.valueOf(NettyPipelineInjector.qualify("replay_stage"));
+
+    private final ReplayDecoderFactory decoders;
+    private final double speed;
+    private final Map<Integer, Connection> connections = new HashMap<>();
+    private final Set<Integer> failedConnections = new HashSet<>();
+
+    /**
+     * Creates a {@link CaptureReplay}.
+     *
+     * @param decoders the factory of the decoders
+     * @param speed the speed relative to the capture, {@code 1} for the original speed,
+     *              {@code 0} or {@link Double#POSITIVE_INFINITY} to replay as fast as possible
+     * @throws IllegalArgumentException if the speed is negative or not a number
+     */
+    public CaptureReplay(@NotNull ReplayDecoderFactory decoders, double speed) throws IllegalArgumentException {
+        if (!(speed >= 0)) throw new IllegalArgumentException("Invalid replay speed: " + speed);
+        this.decoders = decoders;
+        this.speed = speed;
+    }
+
+    /**
+     * Replays the packets and closes the replayed connections afterwards.
+     *
+     * @param packets the packets, ordered by position
+     * @return the report of the replay
+     * @throws InterruptedException thrown if the thread is interrupted while waiting for the next packet
+     */
+    public @NotNull ReplayReport replay(@NotNull List<CapturedPacket> packets) throws InterruptedException {
+        boolean paced = speed > 0 && speed != Double.POSITIVE_INFINITY;
+        long first = packets.isEmpty() ? 0 : packets.get(0).getNanos();
+        long start = System.nanoTime();
+        long failed = 0;
+        long maxLag = 0;
+        try {
+            for (CapturedPacket packet : packets) {
+                if (paced) {
+                    long due = start + (long) ((packet.getNanos() - first) / speed);
+                    long wait;
+                    while ((wait = due - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                        if (Thread.interrupted()) throw new InterruptedException();
+                    }
+                    maxLag = Math.max(maxLag, -wait);
+                }
+
+                Connection connection = connections.get(packet.getConnectionId());
+                try {
+                    if (connection == null) {
+                        connection = new Connection();
+                        connections.put(packet.getConnectionId(), connection);
+                    }
+                    connection.replay(packet);
+                } catch (Throwable e) {
+                    if (failedConnections.add(packet.getConnectionId())) {
+                        PacketListener.getLogger().log(Level.WARNING, "Could not replay " + packet + ", further failures of this connection are only counted", e);
+                    }
+                    failed++;
+                }
+            }
+        } finally {
+            for (Connection connection : connections.values()) {
+                connection.close();
+            }
+        }
+        return new ReplayReport(connections.size(), packets.size(), failed, System.nanoTime() - start, maxLag);
+    }
+
+    /**
+     * A replayed connection.
+     */
+    private class Connection {
+        private final EmbeddedChannel channel;
+        private final PacketInterceptor interceptor;
+        private final ReplayEncoder encoder = new ReplayEncoder();
+        private final EmbeddedChannel clientbound;
+
+        /**
+         * Creates the channels of a replayed connection.
+         *
+         * @throws Exception thrown if the decoders cannot be created
+         */
+        private Connection() throws Exception {
+            // Create the decoders first, so that nothing is left open if the factory fails.
+            ChannelHandler serverboundDecoder = decoders.create(PacketDirection.SERVERBOUND);
+            ChannelHandler clientboundDecoder = decoders.create(PacketDirection.CLIENTBOUND);
+            this.clientbound = clientboundDecoder == null ? null : new EmbeddedChannel(clientboundDecoder);
+            this.channel = new EmbeddedChannel();
+            // Keep the replayed connections out of the sessions, the traffic statistics, the capture and the filters of the server.
+            this.interceptor = new PacketInterceptor(channel, true);
+
+            ChannelPipeline pipeline = channel.pipeline();
+            pipeline.addLast(RawPacketInterceptor.INBOUND_NAME, new RawPacketInterceptor(PacketDirection.SERVERBOUND, interceptor));
+            if (serverboundDecoder != null) pipeline.addLast("decoder", serverboundDecoder);
+            pipeline.addLast(RawPacketInterceptor.OUTBOUND_NAME, new RawPacketInterceptor(PacketDirection.CLIENTBOUND, interceptor));
+            pipeline.addLast("encoder", encoder);
+            pipeline.addLast(PacketInterceptor.NAME, interceptor);
+            pipeline.addLast("packet_handler", new ChannelInboundHandlerAdapter() {
+                @Override
+                public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                    ReferenceCountUtil.release(msg);
+                }
+            });
+        }
+
+        /**
+         * Replays a packet of this connection.
+         *
+         * @param packet the packet
+         */
+        private void replay(@NotNull CapturedPacket packet) {
+            channel.attr(STAGE).set(packet.getStage());
+            interceptor.setStage(packet.getStage());
+            if (packet.getDirection() == PacketDirection.SERVERBOUND) {
+                channel.writeInbound(packet.getFrame());
+                channel.releaseInbound();
+                return;
+            }
+
+            if (clientbound == null) {
+                channel.writeOutbound(packet.getFrame());
+            } else {
+                clientbound.attr(STAGE).set(packet.getStage());
+                clientbound.writeInbound(packet.getFrame());
+                encoder.frame = packet.getFrame();
+                try {
+                    Object decoded;
+                    while ((decoded = clientbound.readInbound()) != null) {
+                        channel.writeOutbound(decoded);
+                    }
+                } finally {
+                    ReferenceCountUtil.release(encoder.frame);
+                    encoder.frame = null;
+                }
+            }
+            channel.releaseOutbound();
+        }
+
+        /**
+         * Closes the channels, releasing anything left in them.
+         */
+        private void close() {
+            channel.finishAndReleaseAll();
+            if (clientbound != null) clientbound.finishAndReleaseAll();
+        }
+    }
+
+    /**
+     * Stands in for the server encoder, writing the captured frame in place of the packet it was decoded into.
+     */
+    private static class ReplayEncoder extends ChannelOutboundHandlerAdapter {
+        private @Nullable ByteBuf frame;
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (!(msg instanceof ByteBuf) && frame != null) {
+                ReferenceCountUtil.release(msg);
+                msg = frame.retainedDuplicate();
+            }
+            super.write(ctx, msg, promise);
+        }
+    }
+}
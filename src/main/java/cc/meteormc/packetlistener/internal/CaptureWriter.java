@@ -0,0 +1,258 @@
+package cc.meteormc.packetlistener.internal;
+
+import cc.meteormc.packetlistener.PacketListener;
+import cc.meteormc.packetlistener.objects.PacketDirection;
+import cc.meteormc.packetlistener.objects.PacketStage;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Writes serialized packets into a memory-mapped ring file.
+ * <p>
+ * The file starts with a header of {@link CaptureWriter#FILE_HEADER} bytes, followed by the ring of records.
+ * Writers reserve space with a single atomic add, then fill their record with absolute writes
+ * into a per-thread view of the mapping, so recording never blocks nor allocates.
+ * Records never wrap around the end of the ring: the remaining space is filled with a padding record instead.
+ * <p>
+ * File header, big-endian: magic {@code long}, version {@code int}, header size {@code int},
+ * ring capacity {@code long}, capture start in epoch milliseconds {@code long}, end position {@code long}.
+ * <p>
+ * Record: magic {@code int}, aligned length {@code int}, position {@code long}, nanoseconds since the capture start {@code long},
+ * connection id {@code int}, direction {@code byte}, stage {@code byte}, reserved {@code short},
+ * packet id {@code int}, payload length {@code int}, then the frame including the packet id, padded to 8 bytes.
+ * Positions grow forever, the offset of a record in the ring is its position modulo the capacity.
+ *
+ * @author Meteor23333
+ */
+public class CaptureWriter {
+    public static final long MAGIC = 0x504C434150545552L;
+    public static final int VERSION = 1;
+    public static final int FILE_HEADER = 64;
+    public static final int RECORD_MAGIC = 0x504C5243;
+    public static final int PADDING_MAGIC = 0x504C5044;
+    public static final int RECORD_HEADER = 40;
+
+    private static volatile CaptureWriter active;
+    private static volatile boolean capturingAll = true;
+    private static volatile boolean[][] packetIds = new boolean[PacketStage.values().length][];
+
+    private final FileChannel file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong position = new AtomicLong();
+    private final LongAdder recorded = new LongAdder();
+    private final ThreadLocal<ByteBuffer> views;
+
+    /**
+     * Creates a {@link CaptureWriter} and writes the file header.
+     *
+     * @param path the capture file, created or truncated
+     * @param size the size of the file in bytes
+     * @throws IOException thrown if the file cannot be mapped
+     */
+    private CaptureWriter(@NotNull Path path, int size) throws IOException {
+        this.file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.capacity = (size - FILE_HEADER) & ~7;
+        this.buffer = file.map(FileChannel.MapMode.READ_WRITE, 0, FILE_HEADER + capacity);
+        this.views = ThreadLocal.withInitial(buffer::duplicate);
+
+        buffer.putLong(0, MAGIC);
+        buffer.putInt(8, VERSION);
+        buffer.putInt(12, FILE_HEADER);
+        buffer.putLong(16, capacity);
+        buffer.putLong(24, System.currentTimeMillis());
+        buffer.putLong(32, 0);
+    }
+
+    /**
+     * Starts capturing into a new file, replacing the running capture.
+     *
+     * @param path the capture file, created or truncated
+     * @param size the size of the file in bytes
+     * @throws IOException thrown if the file cannot be mapped
+     * @throws IllegalArgumentException if the size is too small or larger than {@link Integer#MAX_VALUE}
+     */
+    public static synchronized void start(@NotNull Path path, long size) throws IOException, IllegalArgumentException {
+        if (size < FILE_HEADER + 4096 || size > Integer.MAX_VALUE) throw new IllegalArgumentException("Invalid capture size: " + size);
+
+        stop();
+        active = new CaptureWriter(path, (int) size);
+    }
+
+    /**
+     * Stops the running capture, if any, and flushes the file.
+     */
+    public static synchronized void stop() {
+        CaptureWriter writer = active;
+        if (writer == null) return;
+
+        active = null;
+        // Records still being written by I/O threads land in the mapping, which stays valid until it is collected.
+        writer.buffer.putLong(32, writer.position.get());
+        writer.buffer.force();
+        try {
+            writer.file.close();
+        } catch (IOException e) {
+            PacketListener.getLogger().log(Level.WARNING, "Could not close the capture file!", e);
+        }
+    }
+
+    /**
+     * Gets whether a capture is running.
+     *
+     * @return true if a capture is running
+     */
+    public static boolean isActive() {
+        return active != null;
+    }
+
+    /**
+     * Gets the number of packets recorded by the running capture.
+     *
+     * @return the number of recorded packets, {@code 0} if no capture is running
+     */
+    public static long getRecordedCount() {
+        CaptureWriter writer = active;
+        return writer == null ? 0 : writer.recorded.sum();
+    }
+
+    /**
+     * Sets whether all connections are captured, or only those selected by {@link CaptureWriter#setCaptured(Channel, boolean)}.
+     *
+     * @param capturingAll true to capture all connections
+     */
+    public static void setCapturingAll(boolean capturingAll) {
+        CaptureWriter.capturingAll = capturingAll;
+    }
+
+    /**
+     * Selects a connection for capturing.
+     *
+     * @param channel the channel of the connection
+     * @param captured true to capture the connection
+     * @throws IllegalArgumentException if the connection is not intercepted
+     */
+    public static void setCaptured(@NotNull Channel channel, boolean captured) throws IllegalArgumentException {
+        ChannelHandler interceptor = channel.pipeline().get(PacketInterceptor.NAME);
+        if (!(interceptor instanceof PacketInterceptor)) throw new IllegalArgumentException(channel + " is not intercepted");
+        ((PacketInterceptor) interceptor).setCaptured(captured);
+    }
+
+    /**
+     * Restricts the captured packets of a stage to the given packet ids.
+     *
+     * @param stage the stage
+     * @param ids the protocol ids of the packets to capture, or {@code null} to capture all packets of the stage
+     */
+    public static synchronized void setPacketIds(@NotNull PacketStage stage, @Nullable int[] ids) {
+        boolean[] selected = null;
+        if (ids != null) {
+            int max = -1;
+            for (int id : ids) max = Math.max(max, id);
+            selected = new boolean[max + 1];
+            for (int id : ids) {
+                if (id >= 0) selected[id] = true;
+            }
+        }
+
+        boolean[][] updated = packetIds.clone();
+        updated[stage.ordinal()] = selected;
+        packetIds = updated;
+    }
+
+    /**
+     * Records a frame if a capture is running and the connection and the packet are selected.
+     *
+     * @param interceptor the packet interceptor of the connection
+     * @param direction the direction of the frame
+     * @param stage the stage the packet belongs to
+     * @param packetId the protocol id of the packet
+     * @param frame the frame, starting with the packet id
+     */
+    static void record(@NotNull PacketInterceptor interceptor, @NotNull PacketDirection direction, @NotNull PacketStage stage, int packetId, @NotNull ByteBuf frame) {
+        CaptureWriter writer = active;
+        if (writer == null) return;
+        if (!capturingAll && !interceptor.isCaptured()) return;
+
+        boolean[] selected = packetIds[stage.ordinal()];
+        if (selected != null && (packetId < 0 || packetId >= selected.length || !selected[packetId])) return;
+
+        writer.write(interceptor.getConnectionId(), direction, stage, packetId, frame);
+    }
+
+    /**
+     * Writes a record.
+     *
+     * @param connectionId the id of the connection
+     * @param direction the direction of the frame
+     * @param stage the stage the packet belongs to
+     * @param packetId the protocol id of the packet
+     * @param frame the frame, starting with the packet id
+     */
+    private void write(int connectionId, @NotNull PacketDirection direction, @NotNull PacketStage stage, int packetId, @NotNull ByteBuf frame) {
+        int payload = frame.readableBytes();
+        int length = (RECORD_HEADER + payload + 7) & ~7;
+        if (length > capacity) return;
+
+        long recordPosition = reserve(length);
+        int offset = FILE_HEADER + (int) (recordPosition % capacity);
+        ByteBuffer view = views.get();
+        // The previous lap may have left a complete record here, clear its magic before overwriting it,
+        // so that a reader of the live file does not take the record for complete while it is being written.
+        view.putInt(offset, 0);
+        view.putInt(offset + 4, length);
+        view.putLong(offset + 8, recordPosition);
+        view.putLong(offset + 16, System.nanoTime() - startNanos);
+        view.putInt(offset + 24, connectionId);
+        view.put(offset + 28, (byte) direction.ordinal());
+        view.put(offset + 29, (byte) stage.ordinal());
+        view.putShort(offset + 30, (short) 0);
+        view.putInt(offset + 32, packetId);
+        view.putInt(offset + 36, payload);
+
+        view.clear();
+        view.position(offset + RECORD_HEADER);
+        view.limit(offset + RECORD_HEADER + payload);
+        frame.getBytes(frame.readerIndex(), view);
+        // The magic goes last, so that a record interrupted by a crash or still being written is not mistaken for a complete one.
+        view.putInt(offset, RECORD_MAGIC);
+        recorded.increment();
+    }
+
+    /**
+     * Reserves space for a record, skipping the end of the ring if the record does not fit there.
+     *
+     * @param length the aligned length of the record
+     * @return the position of the record
+     */
+    private long reserve(int length) {
+        while (true) {
+            long current = position.get();
+            int offset = (int) (current % capacity);
+            int remaining = capacity - offset;
+            if (remaining >= length) {
+                if (position.compareAndSet(current, current + length)) return current;
+            } else if (position.compareAndSet(current, current + remaining + length)) {
+                ByteBuffer view = views.get();
+                view.putInt(FILE_HEADER + offset, 0);
+                view.putInt(FILE_HEADER + offset + 4, remaining);
+                view.putInt(FILE_HEADER + offset, PADDING_MAGIC);
+                return current + remaining;
+            }
+        }
+    }
+}
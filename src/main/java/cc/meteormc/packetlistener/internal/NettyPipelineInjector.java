@@ -1,17 +1,30 @@
 package cc.meteormc.packetlistener.internal;
 
 import cc.meteormc.packetlistener.PacketListener;
+import cc.meteormc.packetlistener.PacketSession;
 import cc.meteormc.packetlistener.helper.Reflection;
+import cc.meteormc.packetlistener.objects.PacketDirection;
+import cc.meteormc.packetlistener.objects.PacketStage;
+import com.mojang.authlib.GameProfile;
 import io.netty.channel.*;
+import io.netty.util.AttributeKey;
 import org.bukkit.Bukkit;
 import org.bukkit.Server;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 /**
@@ -20,6 +33,9 @@ import java.util.logging.Level;
  * @author Meteor23333
  */
 public class NettyPipelineInjector {
+    // Shaded copies of the library are relocated to their own package, their handlers are named after it.
+    private static final String NAME_SUFFIX = getNameSuffix();
+
     private final ChannelPipeline pipeline;
 
     /**
@@ -33,12 +49,7 @@ public class NettyPipelineInjector {
             @Override
             public void channelActive(ChannelHandlerContext ctx) throws Exception {
                 try {
-                    // Add the interceptor before the packet is handled.
-                    ctx.pipeline().addBefore(
-                            "packet_handler",
-                            "packetlistener_interceptor",
-                            new PacketInterceptor()
-                    );
+                    addInterceptors(ctx.pipeline());
                 } finally {
                     super.channelActive(ctx);
                 }
@@ -55,73 +66,288 @@ public class NettyPipelineInjector {
         return pipeline;
     }
 
+    /**
+     * Adds the injector logic to the server's {@code Channels}, waiting at most two minutes for the server to bind.
+     *
+     * @return a future completed with the injector of the first accepted connection,
+     *         or completed exceptionally if the server channels could not be found in time
+     * @see NettyPipelineInjector#inject(long, TimeUnit)
+     */
+    public static CompletableFuture<NettyPipelineInjector> inject() {
+        return inject(2, TimeUnit.MINUTES);
+    }
+
     /**
      * Adds the injector logic to the server's {@code Channels}.
      * The interceptor will be automatically injected when a {@link Channel} is initialized
      * after the client and server have established a connection.
      * <p>
-     * This method is executed on a separate thread. Its purpose is to wait until the server has completed its network initialization.
+     * The server binds its channels during its network initialization, which may happen after this method is called.
+     * A daemon thread polls for them with an exponential backoff, from 1 millisecond up to 50 milliseconds between attempts,
+     * so that it neither delays the injection nor burns CPU while the server is starting.
      *
-     * @throws IllegalThreadStateException if the thread was already started
+     * @param timeout the maximum time to wait for the server channels
+     * @param unit the unit of the timeout
+     * @return a future completed with the injector of the first accepted connection,
+     *         or completed exceptionally if the server channels could not be found in time
      */
-    @SuppressWarnings("ALL")
-    public static CompletableFuture<NettyPipelineInjector> inject() throws IllegalThreadStateException {
+    public static CompletableFuture<NettyPipelineInjector> inject(long timeout, @NotNull TimeUnit unit) {
         CompletableFuture<NettyPipelineInjector> future = new CompletableFuture<>();
-        Thread thread = new Thread(() -> {
-            Object server = getMinecraftServer();
-            if (server == null) return;
+        Object server = getMinecraftServer();
+        if (server == null) {
+            future.completeExceptionally(new IllegalStateException("Could not find MinecraftServer"));
+            return future;
+        }
 
-            Field serverConnectionField = Reflection.findField(server.getClass(), "ServerConnection");
-            if (serverConnectionField == null) {
-                PacketListener.getLogger().log(Level.SEVERE, "Could not find a field of type ServerConnection in MinecraftServer!");
-                return;
+        Field serverConnectionField = Reflection.findField(server.getClass(), "ServerConnection");
+        if (serverConnectionField == null) {
+            fail(future, "Could not find a field of type ServerConnection in MinecraftServer!", null);
+            return future;
+        }
+
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "PacketListener-ServerSocketChannelWatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(new ServerChannelWatcher(executor, future, server, serverConnectionField, System.nanoTime() + unit.toNanos(timeout)));
+        return future;
+    }
+
+    /**
+     * Qualifies the name of a handler or a channel attribute with the package of this copy of the library,
+     * so that the copies shaded into different plugins do not collide.
+     * The names of the unrelocated library are left as they are.
+     *
+     * @param name the name, without the {@code packetlistener_} prefix
+     * @return the qualified name
+     */
+    static @NotNull String qualify(@NotNull String name) {
+        return "packetlistener_" + name + NAME_SUFFIX;
+    }
+
+    /**
+     * Gets the suffix of the names of this copy of the library.
+     *
+     * @return the root package of this copy, or an empty string if it is not relocated
+     */
+    private static @NotNull String getNameSuffix() {
+        String name = NettyPipelineInjector.class.getName();
+        String root = name.substring(0, name.lastIndexOf(".internal."));
+        return root.equals("cc.meteormc.packetlistener") ? "" : "@" + root;
+    }
+
+    /**
+     * Adds the interceptors to a pipeline, unless they are already there.
+     * Must be called on the event loop of the channel.
+     * <p>
+     * Interceptors left behind by a previous instance of the plugin, after a reload, are replaced.
+     *
+     * @param pipeline the pipeline to inject into
+     * @return the added interceptor, or {@code null} if the pipeline was already intercepted
+     * @throws IllegalStateException if the pipeline is intercepted by another live copy of the library under the same names
+     */
+    private static @Nullable PacketInterceptor addInterceptors(@NotNull ChannelPipeline pipeline) throws IllegalStateException {
+        ChannelHandler existing = pipeline.get(PacketInterceptor.NAME);
+        if (existing instanceof PacketInterceptor) return null;
+        if (existing != null) {
+            if (!isStale(existing)) {
+                throw new IllegalStateException("The pipeline is already intercepted by another copy of PacketListener ("
+                        + existing.getClass().getClassLoader() + "), relocate the library when shading it");
             }
+            pipeline.remove(existing);
+            if (pipeline.get(RawPacketInterceptor.INBOUND_NAME) != null) pipeline.remove(RawPacketInterceptor.INBOUND_NAME);
+            if (pipeline.get(RawPacketInterceptor.OUTBOUND_NAME) != null) pipeline.remove(RawPacketInterceptor.OUTBOUND_NAME);
+            if (pipeline.get(RedundancyFilter.NAME) != null) pipeline.remove(RedundancyFilter.NAME);
+        }
+
+        // Add the interceptor before the packet is handled.
+        PacketInterceptor interceptor = new PacketInterceptor(pipeline.channel());
+        pipeline.addBefore(
+                "packet_handler",
+                PacketInterceptor.NAME,
+                interceptor
+        );
+        // Add the raw interceptors next to the codec.
+        if (pipeline.get("decoder") != null) {
+            pipeline.addBefore(
+                    "decoder",
+                    RawPacketInterceptor.INBOUND_NAME,
+                    new RawPacketInterceptor(PacketDirection.SERVERBOUND, interceptor)
+            );
+        }
+        if (pipeline.get("encoder") != null) {
+            pipeline.addBefore(
+                    "encoder",
+                    RawPacketInterceptor.OUTBOUND_NAME,
+                    new RawPacketInterceptor(PacketDirection.CLIENTBOUND, interceptor)
+            );
+        }
+        // Add the redundancy filter after the interceptor in the outbound direction, if in use.
+        RedundancyFilter.install(pipeline);
+        return interceptor;
+    }
+
+    /**
+     * Checks whether a handler was left behind by a plugin that has since been unloaded, such as by a reload.
+     * <p>
+     * Handlers of plugins that are still loaded are never considered stale,
+     * as a plugin initializing the library while loading is not enabled yet either.
+     *
+     * @param handler the handler
+     * @return true if the plugin of the handler has been unloaded
+     */
+    private static boolean isStale(@NotNull ChannelHandler handler) {
+        ClassLoader loader = handler.getClass().getClassLoader();
+        if (loader == null || !loader.getClass().getName().endsWith("PluginClassLoader")) return false;
+
+        for (Plugin plugin : Bukkit.getPluginManager().getPlugins()) {
+            if (plugin.getClass().getClassLoader() == loader) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Injects the interceptors into a connection that was accepted before the server channels were hooked.
+     * Must be called on the event loop of the channel.
+     * <p>
+     * The handshake and the login have already happened, so the stage is taken from the protocol attribute
+     * of the channel where the server provides one, and the profile and the player are taken from the network manager.
+     *
+     * @param channel the channel of the connection
+     * @param manager the network manager of the connection
+     */
+    private static void injectExisting(@NotNull Channel channel, @NotNull Object manager) {
+        if (!channel.isActive() || channel.pipeline().get("packet_handler") == null) return;
 
-            List<ChannelFuture> channels;
+        PacketInterceptor interceptor = addInterceptors(channel.pipeline());
+        if (interceptor == null) return;
+        interceptor.setStage(getProtocolStage(channel));
+        bindExisting(interceptor.getSession(), manager);
+    }
 
+    /**
+     * Binds the session of an existing connection to its profile and player, following the network manager
+     * to its packet listener, which holds the profile during the login and the player entity afterwards.
+     * <p>
+     * Nothing is bound if they cannot be found, rather than guessing by the remote address,
+     * which is shared by all players behind a proxy or the same NAT.
+     *
+     * @param session the session of the connection
+     * @param manager the network manager of the connection
+     */
+    private static void bindExisting(@NotNull PacketSession session, @NotNull Object manager) {
+        for (Field field : Reflection.findFields(manager.getClass(), "PacketListener")) {
+            Object listener;
             try {
-                // Wait until ServerConnection is available.
-                while (true) {
-                    Object object = serverConnectionField.get(server);
-                    if (object == null) {
-                        LockSupport.parkNanos(1000000);
-                        continue;
-                    }
+                listener = field.get(manager);
+            } catch (IllegalAccessException e) {
+                continue;
+            }
+            if (listener == null) continue;
 
-                    Field[] fields = serverConnectionField.getType().getDeclaredFields();
-                    Field channelsField = fields[fields.length - 2]; // It is always the second to last element.
-                    channelsField.setAccessible(true);
-                    channels = List.class.cast(channelsField.get(object));
-                    break;
+            Class<?> clazz = listener.getClass();
+            for (int i = 0; i < Reflection.getAccessorCount(clazz); i++) {
+                Object value;
+                try {
+                    value = Reflection.getAccessor(clazz, i).get(listener);
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+
+                if (value instanceof GameProfile) {
+                    session.setProfile((GameProfile) value);
+                } else if (value != null && value.getClass().getName().startsWith("net.minecraft.")) {
+                    Player player = getBukkitEntity(value);
+                    if (player == null) continue;
+                    // The entity holds the profile the player logged in with.
+                    try {
+                        GameProfile profile = (GameProfile) Reflection.findAccessor(value.getClass(), GameProfile.class, 0).get(value);
+                        if (profile != null) session.setProfile(profile);
+                    } catch (RuntimeException ignored) {
+                        // The player still identifies the session.
+                    }
+                    session.setPlayer(player);
+                    return;
                 }
-            } catch (Exception e) {
-                PacketListener.getLogger().log(Level.SEVERE, "Could not find the channels field in ServerConnection!", e);
-                return;
             }
+        }
+    }
 
-            // Wait until Channels is not empty.
-            while (channels.isEmpty()) Thread.yield();
+    /**
+     * Gets the Bukkit player of a player entity.
+     *
+     * @param entity the object that may be a player entity
+     * @return the player, or {@code null} if the object is not a player entity
+     */
+    private static @Nullable Player getBukkitEntity(@NotNull Object entity) {
+        try {
+            Method method = entity.getClass().getMethod("getBukkitEntity");
+            Object player = method.invoke(entity);
+            return player instanceof Player ? (Player) player : null;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
 
-            // Typically, Channels on the server side contain only one element, but this is done just to be safe.
-            for (ChannelFuture channel : channels) {
-                channel.channel().pipeline().addFirst(new ChannelInboundHandlerAdapter() {
-                    @Override
-                    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-                        try {
-                            if (msg instanceof Channel) {
-                                Channel channel = (Channel) msg;
-                                future.complete(new NettyPipelineInjector(channel.pipeline()));
-                            }
-                        } finally {
-                            super.channelRead(ctx, msg);
-                        }
+    /**
+     * Reads the stage of a connection from the {@code protocol} attribute the server keeps on the channel,
+     * which holds the protocol enum on versions before 1.20.2.
+     *
+     * @param channel the channel of the connection
+     * @return the stage of the connection, {@link PacketStage#PLAY} if it cannot be read
+     */
+    private static @NotNull PacketStage getProtocolStage(@NotNull Channel channel) {
+        if (!AttributeKey.exists("protocol")) return PacketStage.PLAY;
+
+        Object protocol = channel.attr(AttributeKey.valueOf("protocol")).get();
+        if (!(protocol instanceof Enum)) return PacketStage.PLAY;
+        switch (((Enum<?>) protocol).name()) {
+            case "HANDSHAKING":
+                return PacketStage.HANDSHAKE;
+            case "STATUS":
+                return PacketStage.QUERY;
+            case "LOGIN":
+                return PacketStage.LOGIN;
+            case "CONFIGURATION":
+                return PacketStage.CONFIGURATION;
+            default:
+                return PacketStage.PLAY;
+        }
+    }
+
+    /**
+     * Adds the hook to a server channel, creating an injector for every accepted connection.
+     *
+     * @param channel the server channel
+     * @param future the future to complete with the first injector
+     */
+    private static void hook(@NotNull Channel channel, @NotNull CompletableFuture<NettyPipelineInjector> future) {
+        channel.pipeline().addFirst(new ChannelInboundHandlerAdapter() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+                try {
+                    if (msg instanceof Channel) {
+                        Channel channel = (Channel) msg;
+                        future.complete(new NettyPipelineInjector(channel.pipeline()));
                     }
-                });
+                } finally {
+                    super.channelRead(ctx, msg);
+                }
             }
-        }, "PacketListener-ServerSocketChannelWatcher");
-        thread.setDaemon(true);
-        thread.start();
-        return future;
+        });
+    }
+
+    /**
+     * Logs an injection failure and completes the future exceptionally.
+     *
+     * @param future the future of the injection
+     * @param message the failure message
+     * @param cause the cause, or {@code null} if none
+     */
+    private static void fail(@NotNull CompletableFuture<NettyPipelineInjector> future, @NotNull String message, @Nullable Throwable cause) {
+        PacketListener.getLogger().log(Level.SEVERE, message, cause);
+        future.completeExceptionally(new IllegalStateException(message, cause));
     }
 
     /**
@@ -138,4 +364,143 @@ public class NettyPipelineInjector {
         }
         return null;
     }
+
+    /**
+     * Waits for the server to bind its channels, then hooks them.
+     * Each attempt runs on the watcher thread and schedules the next one, doubling the delay in between.
+     */
+    private static class ServerChannelWatcher implements Runnable {
+        private static final long MAX_BACKOFF_MILLIS = 50;
+
+        private final ScheduledExecutorService executor;
+        private final CompletableFuture<NettyPipelineInjector> future;
+        private final Object server;
+        private final Field serverConnectionField;
+        private final long deadline;
+        private long backoff = 1;
+        private Field channelsField;
+
+        private ServerChannelWatcher(ScheduledExecutorService executor, CompletableFuture<NettyPipelineInjector> future, Object server, Field serverConnectionField, long deadline) {
+            this.executor = executor;
+            this.future = future;
+            this.server = server;
+            this.serverConnectionField = serverConnectionField;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Object serverConnection = serverConnectionField.get(server);
+                List<?> channels = serverConnection == null ? null : getChannels(serverConnection);
+                if (channels != null && !channels.isEmpty()) {
+                    // The server guards the list with its own monitor.
+                    synchronized (channels) {
+                        // Typically, Channels on the server side contain only one element, but this is done just to be safe.
+                        for (Object channel : channels) {
+                            hook(((ChannelFuture) channel).channel(), future);
+                        }
+                    }
+                    injectExisting(serverConnection);
+                    executor.shutdown();
+                    return;
+                }
+
+                if (System.nanoTime() - deadline >= 0) {
+                    fail(future, serverConnection == null
+                            ? "Timed out waiting for the ServerConnection of MinecraftServer!"
+                            : "Timed out waiting for the server channels in ServerConnection!", null);
+                    executor.shutdown();
+                    return;
+                }
+
+                executor.schedule(this, backoff, TimeUnit.MILLISECONDS);
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            } catch (Throwable e) {
+                fail(future, "Could not find the channels field in ServerConnection!", e);
+                executor.shutdown();
+            }
+        }
+
+        /**
+         * Injects the interceptors into the connections accepted before the server channels were hooked,
+         * such as when the plugin is enabled late or reloaded.
+         * <p>
+         * The connections are found through the list of network managers of the {@code ServerConnection},
+         * every one of them holding the channel of its connection. The injection itself is handed over
+         * to the event loop of each channel.
+         *
+         * @param serverConnection the {@code ServerConnection}
+         */
+        private void injectExisting(@NotNull Object serverConnection) {
+            List<Object> managers = new ArrayList<>();
+            try {
+                for (Field field : Reflection.findFields(serverConnection.getClass(), List.class)) {
+                    if (field.equals(channelsField)) continue;
+                    List<?> list = (List<?>) field.get(serverConnection);
+                    if (list == null) continue;
+                    synchronized (list) {
+                        managers.addAll(list);
+                    }
+                }
+            } catch (Throwable e) {
+                PacketListener.getLogger().log(Level.WARNING, "Could not list the existing connections, they will not be intercepted!", e);
+                return;
+            }
+
+            int count = 0;
+            for (Object manager : managers) {
+                if (manager == null) continue;
+                Field channelField = Reflection.findField(manager.getClass(), Channel.class);
+                if (channelField == null) continue;
+                try {
+                    Channel channel = (Channel) channelField.get(manager);
+                    if (channel == null || !channel.isActive()) continue;
+                    channel.eventLoop().execute(() -> {
+                        try {
+                            NettyPipelineInjector.injectExisting(channel, manager);
+                        } catch (Throwable e) {
+                            PacketListener.getLogger().log(Level.WARNING, "Could not intercept the existing connection " + channel + "!", e);
+                        }
+                    });
+                    count++;
+                } catch (Throwable e) {
+                    PacketListener.getLogger().log(Level.WARNING, "Could not intercept an existing connection!", e);
+                }
+            }
+            if (count != 0) PacketListener.getLogger().info("Intercepting " + count + " existing connections");
+        }
+
+        /**
+         * Gets the list of server channels from the {@code ServerConnection}.
+         * <p>
+         * The list is resolved by its generic type {@code List<ChannelFuture>}. Should the signature be unavailable,
+         * the first list holding {@link ChannelFuture}s is used instead, once the server has bound.
+         *
+         * @param serverConnection the {@code ServerConnection}
+         * @return the list of server channels, or {@code null} if it cannot be told apart yet
+         * @throws IllegalAccessException if the field cannot be read
+         */
+        private @Nullable List<?> getChannels(@NotNull Object serverConnection) throws IllegalAccessException {
+            if (channelsField != null) return (List<?>) channelsField.get(serverConnection);
+
+            Field[] lists = Reflection.findFields(serverConnection.getClass(), List.class);
+            for (Field field : lists) {
+                Type generic = field.getGenericType();
+                if (generic instanceof ParameterizedType && ((ParameterizedType) generic).getActualTypeArguments()[0] == ChannelFuture.class) {
+                    channelsField = field;
+                    return (List<?>) field.get(serverConnection);
+                }
+            }
+            for (Field field : lists) {
+                List<?> list = (List<?>) field.get(serverConnection);
+                if (list != null && !list.isEmpty() && list.get(0) instanceof ChannelFuture) {
+                    channelsField = field;
+                    return list;
+                }
+            }
+            if (lists.length == 0) throw new IllegalStateException("ServerConnection has no list fields");
+            return null;
+        }
+    }
 }
@@ -0,0 +1,369 @@
+package cc.meteormc.packetlistener.internal;
+
+import cc.meteormc.packetlistener.PacketListener;
+import cc.meteormc.packetlistener.helper.Reflection;
+import cc.meteormc.packetlistener.objects.PacketStage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoop;
+import io.netty.util.ReferenceCountUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.zip.Deflater;
+
+/**
+ * Broadcasts a packet to many connections, serializing it only once.
+ * <p>
+ * The packet is encoded once per encoder implementation and stage, and compressed once per compression threshold,
+ * then a retained duplicate of the frame is written to every connection, right behind its encoder or compressor.
+ * Each connection then writes its frame on its event loop, after firing the events if requested,
+ * and passes it to its outbound raw interceptor, before compression, like any other packet.
+ *
+ * @author Meteor23333
+ */
+public class PacketBroadcaster {
+    private static final int NO_COMPRESSION = -1;
+    private static final int UNKNOWN_COMPRESSION = -2;
+    private static final MethodType ENCODE_TYPE = MethodType.methodType(void.class, Object.class, ChannelHandlerContext.class, Object.class, ByteBuf.class);
+
+    private static final ClassValue<Optional<MethodHandle>> ENCODE_METHODS = new ClassValue<Optional<MethodHandle>>() {
+        @Override
+        protected Optional<MethodHandle> computeValue(Class<?> type) {
+            return Optional.ofNullable(findEncodeMethod(type));
+        }
+    };
+
+    /**
+     * Broadcasts a packet.
+     * <p>
+     * Frames are only shared between intercepted connections in the same stage whose encoder is the vanilla one,
+     * and compressed frames only between connections without a foreign handler between the encoder and the compressor,
+     * since such a handler, a protocol translator for example, may produce different bytes for each connection.
+     * Other connections serialize the packet themselves.
+     *
+     * @param handle the original packet object
+     * @param channels the channels of the connections
+     * @param fireEvents true to pass the packet to the outbound handlers of each connection first, on its event loop,
+     *                   allowing them to cancel, modify or replace it
+     */
+    public static void broadcast(@NotNull Object handle, @NotNull Collection<? extends Channel> channels, boolean fireEvents) {
+        Map<FrameKey, ByteBuf> encoded = new HashMap<>();
+        Set<FrameKey> unencodable = new HashSet<>();
+        Map<GroupKey, List<ChannelHandlerContext>> groups = new LinkedHashMap<>();
+        try {
+            for (Channel channel : channels) {
+                if (!channel.isActive()) continue;
+
+                ChannelPipeline pipeline = channel.pipeline();
+                ChannelHandler interceptor = pipeline.get(PacketInterceptor.NAME);
+                ChannelHandlerContext encoder = pipeline.context("encoder");
+                ByteBuf frame = null;
+                FrameKey key = null;
+                if (interceptor instanceof PacketInterceptor && encoder != null && isVanilla(encoder.handler())) {
+                    // The encoder writes the packet with the protocol of the stage, which may not even know the packet.
+                    key = new FrameKey(encoder.handler().getClass(), ((PacketInterceptor) interceptor).getStage());
+                    if (!unencodable.contains(key)) {
+                        frame = encoded.computeIfAbsent(key, k -> encode(encoder, handle));
+                        // Remember the failure, so that it is neither retried nor logged for every connection.
+                        if (frame == null) unencodable.add(key);
+                    }
+                }
+                if (frame == null) {
+                    // Let the connection serialize the packet itself, without passing through the interceptor again.
+                    ChannelHandlerContext interceptorCtx = pipeline.context(PacketInterceptor.NAME);
+                    if (interceptorCtx != null) write(interceptorCtx, handle, null, handle, fireEvents);
+                    else channel.writeAndFlush(handle, channel.voidPromise());
+                    continue;
+                }
+
+                ChannelHandlerContext compress = pipeline.context("compress");
+                int threshold = compress == null || !isNextToEncoder(pipeline) ? NO_COMPRESSION : getThreshold(compress.handler());
+                groups.computeIfAbsent(new GroupKey(key, threshold), k -> new ArrayList<>())
+                        .add(threshold >= 0 ? compress : encoder);
+            }
+
+            for (Map.Entry<GroupKey, List<ChannelHandlerContext>> group : groups.entrySet()) {
+                ByteBuf data = encoded.get(group.getKey().frame);
+                int threshold = group.getKey().threshold;
+                ByteBuf frame = threshold >= 0 ? compress(group.getValue().get(0).alloc(), data, threshold) : data;
+
+                try {
+                    for (ChannelHandlerContext ctx : group.getValue()) {
+                        // Writing from the encoder or compressor context skips it, the frame goes straight to the next handler.
+                        // A compressed frame skips the raw interceptor too, which is given the uncompressed one instead.
+                        write(ctx, frame.retainedDuplicate(), threshold >= 0 ? data.retainedDuplicate() : null, handle, fireEvents);
+                    }
+                } finally {
+                    if (threshold >= 0) frame.release();
+                }
+            }
+        } finally {
+            for (ByteBuf frame : encoded.values()) {
+                if (frame != null) frame.release();
+            }
+        }
+    }
+
+    /**
+     * Writes a message from the given context on the event loop of the connection,
+     * after passing the packet to the outbound handlers of the connection if requested.
+     * The message is released if the packet is cancelled, modified or replaced,
+     * in which case the packet is written by itself instead.
+     *
+     * @param ctx the context to write from
+     * @param msg the message to write, the frame or the original packet object
+     * @param data the frame before compression if the message is compressed, otherwise {@code null}, released once written
+     * @param handle the original packet object
+     * @param fireEvents true to pass the packet to the outbound handlers first
+     */
+    private static void write(@NotNull ChannelHandlerContext ctx, @NotNull Object msg, @Nullable ByteBuf data, @NotNull Object handle, boolean fireEvents) {
+        ChannelPipeline pipeline = ctx.pipeline();
+        ChannelHandler interceptor = pipeline.get(PacketInterceptor.NAME);
+        if (!(interceptor instanceof PacketInterceptor)) {
+            if (data != null) data.release();
+            ctx.writeAndFlush(msg, ctx.voidPromise());
+            return;
+        }
+
+        ChannelHandlerContext interceptorCtx = pipeline.context(interceptor);
+        Runnable task = () -> {
+            try {
+                Object packet;
+                try {
+                    packet = fireEvents ? ((PacketInterceptor) interceptor).fireOutbound(interceptorCtx, handle) : handle;
+                } catch (Throwable e) {
+                    ReferenceCountUtil.release(msg);
+                    throw e;
+                }
+                if (packet == handle) {
+                    ((PacketInterceptor) interceptor).writeBehind(ctx, msg, data, handle);
+                    return;
+                }
+
+                ReferenceCountUtil.release(msg);
+                // A handler modified or replaced the packet for this connection only, which cannot share the frame.
+                if (packet != null) ((PacketInterceptor) interceptor).writeBehind(interceptorCtx, packet, null, packet);
+            } finally {
+                if (data != null) data.release();
+            }
+        };
+
+        EventLoop eventLoop = ctx.channel().eventLoop();
+        if (eventLoop.inEventLoop()) task.run();
+        else eventLoop.execute(task);
+    }
+
+    /**
+     * Checks whether an encoder is the one of the server, whose output only depends on the stage of the connection.
+     *
+     * @param encoder the encoder
+     * @return true if the encoder is a vanilla one
+     */
+    private static boolean isVanilla(@NotNull ChannelHandler encoder) {
+        return encoder.getClass().getName().startsWith("net.minecraft.");
+    }
+
+    /**
+     * Checks whether nothing but the raw interceptor lies between the compressor and the encoder,
+     * so that writing a compressed frame from the compressor skips nothing that may change the bytes.
+     *
+     * @param pipeline the pipeline
+     * @return true if the compressor directly follows the encoder
+     */
+    private static boolean isNextToEncoder(@NotNull ChannelPipeline pipeline) {
+        boolean between = false;
+        for (Map.Entry<String, ChannelHandler> entry : pipeline) {
+            if (entry.getKey().equals("compress")) {
+                between = true;
+            } else if (entry.getKey().equals("encoder")) {
+                return between;
+            } else if (between && !(entry.getValue() instanceof RawPacketInterceptor)) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Serializes a packet using the encoder of a connection.
+     *
+     * @param encoder the context of the encoder
+     * @param handle the original packet object
+     * @return the serialized packet, or {@code null} if the encoder cannot be used
+     */
+    private static @Nullable ByteBuf encode(@NotNull ChannelHandlerContext encoder, @NotNull Object handle) {
+        MethodHandle method = ENCODE_METHODS.get(encoder.handler().getClass()).orElse(null);
+        if (method == null) return null;
+
+        ByteBuf buf = encoder.alloc().buffer();
+        try {
+            method.invokeExact((Object) encoder.handler(), encoder, handle, buf);
+            return buf;
+        } catch (Throwable e) {
+            buf.release();
+            PacketListener.getLogger().log(Level.WARNING, "Could not encode " + handle.getClass().getSimpleName() + " for broadcasting!", e);
+            return null;
+        }
+    }
+
+    /**
+     * Finds the {@code encode(ChannelHandlerContext, Object, ByteBuf)} method of a {@code MessageToByteEncoder}.
+     *
+     * @param type the class of the encoder
+     * @return the method, or {@code null} if the encoder has none
+     */
+    private static @Nullable MethodHandle findEncodeMethod(@NotNull Class<?> type) {
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            for (Method method : current.getDeclaredMethods()) {
+                Class<?>[] parameters = method.getParameterTypes();
+                if (!method.getName().equals("encode") || parameters.length != 3) continue;
+                if (parameters[0] != ChannelHandlerContext.class || parameters[2] != ByteBuf.class) continue;
+                if (method.isBridge() || Modifier.isAbstract(method.getModifiers())) continue;
+
+                try {
+                    method.setAccessible(true);
+                    return MethodHandles.lookup().unreflect(method).asType(ENCODE_TYPE);
+                } catch (RuntimeException | IllegalAccessException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the compression threshold of a compressor.
+     *
+     * @param compressor the compressor
+     * @return the threshold, or {@link PacketBroadcaster#UNKNOWN_COMPRESSION} if it cannot be read
+     */
+    private static int getThreshold(@NotNull ChannelHandler compressor) {
+        try {
+            // The threshold is the only int field of the compressor in every version.
+            return (int) Reflection.findAccessor(compressor.getClass(), int.class, 0).get(compressor);
+        } catch (RuntimeException e) {
+            return UNKNOWN_COMPRESSION;
+        }
+    }
+
+    /**
+     * Compresses a serialized packet the way the server does: the uncompressed length followed by the deflated data,
+     * or a zero length followed by the data if it is below the threshold.
+     *
+     * @param alloc the allocator
+     * @param data the serialized packet
+     * @param threshold the compression threshold
+     * @return the compressed frame
+     */
+    private static @NotNull ByteBuf compress(@NotNull ByteBufAllocator alloc, @NotNull ByteBuf data, int threshold) {
+        int size = data.readableBytes();
+        ByteBuf out = alloc.buffer(size + 5);
+        if (size < threshold) {
+            writeVarInt(out, 0);
+            out.writeBytes(data, data.readerIndex(), size);
+            return out;
+        }
+
+        writeVarInt(out, size);
+        byte[] input = new byte[size];
+        data.getBytes(data.readerIndex(), input);
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                out.writeBytes(buffer, 0, length);
+            }
+        } finally {
+            deflater.end();
+        }
+        return out;
+    }
+
+    /**
+     * Writes a VarInt.
+     *
+     * @param buf the buffer
+     * @param value the value
+     */
+    private static void writeVarInt(@NotNull ByteBuf buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf.writeByte(value);
+    }
+
+    /**
+     * Connections sharing the same uncompressed frame.
+     */
+    private static class FrameKey {
+        private final Class<?> encoder;
+        private final PacketStage stage;
+
+        private FrameKey(Class<?> encoder, PacketStage stage) {
+            this.encoder = encoder;
+            this.stage = stage;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof FrameKey)) return false;
+            FrameKey other = (FrameKey) o;
+            return encoder == other.encoder && stage == other.stage;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * encoder.hashCode() + stage.hashCode();
+        }
+    }
+
+    /**
+     * Connections sharing the same frame.
+     */
+    private static class GroupKey {
+        private final FrameKey frame;
+        private final int threshold;
+
+        private GroupKey(FrameKey frame, int threshold) {
+            this.frame = frame;
+            this.threshold = threshold;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof GroupKey)) return false;
+            GroupKey other = (GroupKey) o;
+            return frame.equals(other.frame) && threshold == other.threshold;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * frame.hashCode() + threshold;
+        }
+    }
+
+    /**
+     * This class cannot be instantiated!
+     */
+    private PacketBroadcaster() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+}
@@ -0,0 +1,321 @@
+package cc.meteormc.packetlistener.internal;
+
+import cc.meteormc.packetlistener.ListenerProfiler;
+import cc.meteormc.packetlistener.PacketListener;
+import cc.meteormc.packetlistener.PacketSubscription;
+import cc.meteormc.packetlistener.RawPacketHandler;
+import cc.meteormc.packetlistener.event.PacketEvent;
+import cc.meteormc.packetlistener.objects.PacketDirection;
+import cc.meteormc.packetlistener.objects.PacketStage;
+import cc.meteormc.packetlistener.objects.PacketType;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import org.bukkit.event.EventPriority;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * Dispatches packets to the native {@link PacketSubscription}s.
+ * <p>
+ * Subscriptions are resolved into a handler array per {@link PacketType} the first time a type is seen,
+ * so a packet only visits the handlers subscribed to its type, without any locking on the hot path.
+ *
+ * @author Meteor23333
+ */
+public class PacketDispatcher {
+    private static final PacketSubscription[] NO_SUBSCRIPTIONS = new PacketSubscription[0];
+    private static final RawSubscription[] NO_RAW_SUBSCRIPTIONS = new RawSubscription[0];
+    private static final int STAGES = PacketStage.values().length;
+
+    private static final Object LOCK = new Object();
+    private static volatile PacketSubscription[] subscriptions = NO_SUBSCRIPTIONS;
+    private static volatile PacketSubscription[][] byType = new PacketSubscription[0][];
+    private static volatile RawSubscription[] rawInbound = NO_RAW_SUBSCRIPTIONS;
+    private static volatile RawSubscription[] rawOutbound = NO_RAW_SUBSCRIPTIONS;
+    private static volatile boolean eventReuse = false;
+
+    /**
+     * Adds a subscription.
+     *
+     * @param subscription the subscription to add
+     */
+    public static void subscribe(@NotNull PacketSubscription subscription) {
+        synchronized (LOCK) {
+            PacketSubscription[] updated = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+            updated[updated.length - 1] = subscription;
+            // Stable sort, so handlers with the same priority keep their registration order.
+            Arrays.sort(updated, Comparator.comparingInt(s -> s.getPriority().ordinal()));
+            update(updated);
+        }
+    }
+
+    /**
+     * Removes a subscription.
+     *
+     * @param subscription the subscription to remove
+     */
+    public static void unsubscribe(@NotNull PacketSubscription subscription) {
+        synchronized (LOCK) {
+            List<PacketSubscription> updated = new ArrayList<>(Arrays.asList(subscriptions));
+            if (updated.remove(subscription)) update(updated.toArray(NO_SUBSCRIPTIONS));
+        }
+    }
+
+    /**
+     * Removes all subscriptions of a plugin.
+     *
+     * @param plugin the plugin
+     */
+    public static void unsubscribeAll(@NotNull Plugin plugin) {
+        synchronized (LOCK) {
+            List<PacketSubscription> updated = new ArrayList<>(Arrays.asList(subscriptions));
+            if (updated.removeIf(s -> s.getPlugin() == plugin)) update(updated.toArray(NO_SUBSCRIPTIONS));
+            rawInbound = Arrays.stream(rawInbound).filter(s -> s.plugin != plugin).toArray(RawSubscription[]::new);
+            rawOutbound = Arrays.stream(rawOutbound).filter(s -> s.plugin != plugin).toArray(RawSubscription[]::new);
+        }
+    }
+
+    /**
+     * Adds a raw handler.
+     *
+     * @param plugin the plugin owning the handler
+     * @param direction the direction of the packets
+     * @param handler the handler
+     */
+    public static void subscribeRaw(@NotNull Plugin plugin, @NotNull PacketDirection direction, @NotNull RawPacketHandler handler) {
+        synchronized (LOCK) {
+            RawSubscription subscription = new RawSubscription(plugin, handler);
+            if (direction == PacketDirection.SERVERBOUND) {
+                rawInbound = append(rawInbound, subscription);
+            } else {
+                rawOutbound = append(rawOutbound, subscription);
+            }
+        }
+    }
+
+    /**
+     * Removes a raw handler from both directions.
+     *
+     * @param handler the handler
+     */
+    public static void unsubscribeRaw(@NotNull RawPacketHandler handler) {
+        synchronized (LOCK) {
+            rawInbound = Arrays.stream(rawInbound).filter(s -> s.handler != handler).toArray(RawSubscription[]::new);
+            rawOutbound = Arrays.stream(rawOutbound).filter(s -> s.handler != handler).toArray(RawSubscription[]::new);
+        }
+    }
+
+    /**
+     * Gets the raw handlers of a direction.
+     *
+     * @param direction the direction of the packets
+     * @return the raw subscriptions, the array must not be modified
+     */
+    static @NotNull RawSubscription[] getRawSubscriptions(@NotNull PacketDirection direction) {
+        return direction == PacketDirection.SERVERBOUND ? rawInbound : rawOutbound;
+    }
+
+    /**
+     * Calls the raw handlers.
+     *
+     * @param subscriptions the raw subscriptions of the direction
+     * @param ctx the ctx of the raw interceptor
+     * @param direction the direction of the packet
+     * @param packetId the protocol id of the packet
+     * @param payload the read-only packet content following the packet id
+     * @return true if any handler asked to drop the packet
+     */
+    static boolean dispatchRaw(@NotNull RawSubscription[] subscriptions, @NotNull ChannelHandlerContext ctx, @NotNull PacketDirection direction, int packetId, @NotNull ByteBuf payload) {
+        int readerIndex = payload.readerIndex();
+        boolean drop = false;
+        for (RawSubscription subscription : subscriptions) {
+            if (!subscription.plugin.isEnabled()) continue;
+
+            try {
+                drop |= subscription.handler.handle(ctx, direction, packetId, payload);
+            } catch (Throwable e) {
+                PacketListener.getLogger().log(Level.SEVERE, "Could not pass raw packet " + packetId + " to " + subscription.plugin.getName(), e);
+            }
+            // Every handler sees the payload from its start.
+            payload.readerIndex(readerIndex);
+        }
+        return drop;
+    }
+
+    /**
+     * Sets whether the interceptors reuse their event and packet objects.
+     *
+     * @param eventReuse true to reuse one event per connection and direction
+     */
+    public static void setEventReuse(boolean eventReuse) {
+        PacketDispatcher.eventReuse = eventReuse;
+    }
+
+    /**
+     * Gets whether the interceptors reuse their event and packet objects.
+     *
+     * @return true if events are reused
+     */
+    public static boolean isEventReuse() {
+        return eventReuse;
+    }
+
+    /**
+     * Gets an event that is safe to keep after the dispatch has returned.
+     *
+     * @param event the event being dispatched
+     * @return a snapshot of the event if events are reused, otherwise the event itself
+     */
+    public static @NotNull PacketEvent retain(@NotNull PacketEvent event) {
+        return eventReuse ? event.snapshot() : event;
+    }
+
+    /**
+     * Gets the subscriptions handling the given packet type in the given stage, ordered by priority.
+     * <p>
+     * The result is resolved once per packet type and stage, so subscriptions restricted to another stage
+     * cost nothing while a connection is in this one.
+     *
+     * @param type the packet type
+     * @param stage the stage of the connection
+     * @return the subscriptions, the array must not be modified
+     */
+    static @NotNull PacketSubscription[] getSubscriptions(@NotNull PacketType type, @NotNull PacketStage stage) {
+        PacketSubscription[][] byType = PacketDispatcher.byType;
+        int index = type.getId() * STAGES + stage.ordinal();
+        if (index < byType.length) {
+            PacketSubscription[] resolved = byType[index];
+            if (resolved != null) return resolved;
+        }
+
+        synchronized (LOCK) {
+            byType = PacketDispatcher.byType;
+            if (index < byType.length && byType[index] != null) return byType[index];
+
+            List<PacketSubscription> matched = new ArrayList<>();
+            for (PacketSubscription subscription : subscriptions) {
+                if (subscription.matches(type, stage)) matched.add(subscription);
+            }
+
+            PacketSubscription[] resolved = matched.isEmpty() ? NO_SUBSCRIPTIONS : matched.toArray(NO_SUBSCRIPTIONS);
+            PacketSubscription[][] updated = Arrays.copyOf(byType, Math.max(byType.length, index + 1));
+            updated[index] = resolved;
+            PacketDispatcher.byType = updated;
+            return resolved;
+        }
+    }
+
+    /**
+     * Calls the handlers of the subscriptions.
+     *
+     * @param subscriptions the subscriptions of the packet type
+     * @param event the event to pass
+     * @param monitor true to call only the {@link EventPriority#MONITOR} handlers, false to call all others
+     */
+    static void dispatch(@NotNull PacketSubscription[] subscriptions, @NotNull PacketEvent event, boolean monitor) {
+        boolean profiling = ListenerProfiler.isEnabled();
+        for (PacketSubscription subscription : subscriptions) {
+            if (subscription.isAsync() || (subscription.getPriority() == EventPriority.MONITOR) != monitor) continue;
+            if (subscription.isIgnoringCancelled() && event.isCancelled()) continue;
+            if (!subscription.getPlugin().isEnabled()) continue;
+
+            long start = profiling ? System.nanoTime() : 0;
+            try {
+                subscription.getHandler().handle(event);
+            } catch (Throwable e) {
+                PacketListener.getLogger().log(
+                        Level.SEVERE,
+                        "Could not pass packet " + event.getPacket().getName() + " to " + subscription.getPlugin().getName(),
+                        e
+                );
+            }
+            if (profiling) {
+                ListenerProfiler.record(subscription, subscription.getPlugin(), event.getPacket().getType(), System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Hands the event over to the asynchronous handlers, if any.
+     *
+     * @param subscriptions the subscriptions of the packet type
+     * @param event the event to pass, must no longer be modified by the caller
+     * @param queue the asynchronous delivery queue of the connection
+     */
+    static void dispatchAsync(@NotNull PacketSubscription[] subscriptions, @NotNull PacketEvent event, @NotNull AsyncPacketQueue queue) {
+        boolean any = false;
+        for (PacketSubscription subscription : subscriptions) {
+            if (subscription.isAsync()) {
+                any = true;
+                break;
+            }
+        }
+        if (!any) return;
+
+        PacketEvent retained = retain(event);
+        queue.offer(() -> {
+            for (PacketSubscription subscription : subscriptions) {
+                if (!subscription.isAsync() || !subscription.getPlugin().isEnabled()) continue;
+
+                try {
+                    subscription.getHandler().handle(retained);
+                } catch (Throwable e) {
+                    PacketListener.getLogger().log(
+                            Level.SEVERE,
+                            "Could not pass packet " + retained.getPacket().getName() + " to " + subscription.getPlugin().getName(),
+                            e
+                    );
+                }
+            }
+        });
+    }
+
+    /**
+     * Appends a raw subscription to a copy of the given array.
+     *
+     * @param subscriptions the current raw subscriptions
+     * @param subscription the subscription to append
+     * @return the new array
+     */
+    private static @NotNull RawSubscription[] append(@NotNull RawSubscription[] subscriptions, @NotNull RawSubscription subscription) {
+        RawSubscription[] updated = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+        updated[updated.length - 1] = subscription;
+        return updated;
+    }
+
+    /**
+     * Replaces the subscriptions and invalidates the resolved handler arrays. Must be called while holding {@link PacketDispatcher#LOCK}.
+     *
+     * @param updated the new subscriptions
+     */
+    private static void update(@NotNull PacketSubscription[] updated) {
+        subscriptions = updated;
+        byType = new PacketSubscription[0][];
+    }
+
+    /**
+     * A registered {@link RawPacketHandler}.
+     */
+    static class RawSubscription {
+        private final Plugin plugin;
+        private final RawPacketHandler handler;
+
+        private RawSubscription(Plugin plugin, RawPacketHandler handler) {
+            this.plugin = plugin;
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * This class cannot be instantiated!
+     */
+    private PacketDispatcher() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+}
@@ -1,17 +1,31 @@
 package cc.meteormc.packetlistener.internal;
 
+import cc.meteormc.packetlistener.ListenerProfiler;
+import cc.meteormc.packetlistener.PacketListener;
+import cc.meteormc.packetlistener.PacketSession;
+import cc.meteormc.packetlistener.PacketSubscription;
+import cc.meteormc.packetlistener.event.PacketEvent;
 import cc.meteormc.packetlistener.event.PacketInboundEvent;
 import cc.meteormc.packetlistener.event.PacketOutboundEvent;
+import cc.meteormc.packetlistener.helper.Reflection;
 import cc.meteormc.packetlistener.objects.Packet;
-import cc.meteormc.packetlistener.objects.PacketDirection;
 import cc.meteormc.packetlistener.objects.PacketStage;
+import cc.meteormc.packetlistener.objects.PacketType;
 import com.mojang.authlib.GameProfile;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.*;
+import io.netty.util.ReferenceCountUtil;
 import org.bukkit.Bukkit;
-import org.bukkit.entity.Player;
 import org.bukkit.event.Cancellable;
 import org.bukkit.event.Event;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.plugin.RegisteredListener;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 
 /**
  * Packet interceptor. All written or read packets pass through here.
@@ -19,8 +33,45 @@ import org.jetbrains.annotations.NotNull;
  * @author Meteor23333
  */
 class PacketInterceptor extends ChannelDuplexHandler {
-    private GameProfile profile;
-    private Player player;
+    static final String NAME = NettyPipelineInjector.qualify("interceptor");
+
+    private static final AtomicInteger CONNECTION_IDS = new AtomicInteger();
+
+    private final int connectionId = CONNECTION_IDS.incrementAndGet();
+    private final AsyncPacketQueue asyncQueue = new AsyncPacketQueue();
+    private final TrafficCounter traffic;
+    private final PacketSession session;
+    private final boolean detached;
+    private volatile boolean captured;
+
+    // Reused events, only touched on the event loop of the channel.
+    private PacketInboundEvent inboundEvent;
+    private PacketOutboundEvent outboundEvent;
+    private boolean inboundBusy;
+    private boolean outboundBusy;
+
+    /**
+     * Creates a {@link PacketInterceptor} and registers the traffic counters and the session of the connection.
+     *
+     * @param channel the channel of the connection
+     */
+    PacketInterceptor(@NotNull Channel channel) {
+        this(channel, false);
+    }
+
+    /**
+     * Creates a {@link PacketInterceptor}.
+     *
+     * @param channel the channel of the connection
+     * @param detached true for a connection that is not a real one, such as a replayed connection,
+     *                 whose traffic counters and session are kept out of the server-wide registries and statistics,
+     *                 and whose frames skip the capture, the packet id filter and the rate limiter
+     */
+    PacketInterceptor(@NotNull Channel channel, boolean detached) {
+        this.detached = detached;
+        this.traffic = detached ? TrafficCounter.detached() : TrafficCounter.register(channel);
+        this.session = detached ? PacketSession.detached(channel) : PacketSession.register(channel);
+    }
 
     /**
      * Calls {@link ChannelHandlerContext#fireChannelRead(Object)} to forward
@@ -35,12 +86,44 @@ class PacketInterceptor extends ChannelDuplexHandler {
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
         // Inbound
-        Packet packet = Packet.fromHandle(msg);
-        if (packet != null) {
-            handlePacket(packet);
-            if (callEvent(new PacketInboundEvent(ctx, profile, player, packet))) {
-                return;
+        PacketType type = PacketType.of(msg.getClass());
+        if (type != null) {
+            traffic.recordPacket(type);
+            handleLogin(type, msg);
+            PacketStage stage = stageOf(type);
+            PacketSubscription[] subscriptions = PacketDispatcher.getSubscriptions(type, stage);
+            // Skip wrapping and dispatching entirely if nobody is listening.
+            if (subscriptions.length != 0 || hasListeners(PacketInboundEvent.getHandlerList())) {
+                Packet packet;
+                boolean cancelled;
+                if (PacketDispatcher.isEventReuse() && !inboundBusy) {
+                    // A handler may cause a nested read on this channel, which must not reuse the event in use.
+                    inboundBusy = true;
+                    try {
+                        if (inboundEvent == null) {
+                            packet = Packet.fromHandle(msg, type, stage);
+                            inboundEvent = new PacketInboundEvent(ctx, session.getProfile(), session.getPlayer(), packet);
+                        } else {
+                            packet = inboundEvent.getPacket();
+                            packet.reset(msg, type, stage);
+                            inboundEvent.reset(ctx, session.getProfile(), session.getPlayer(), packet);
+                        }
+                        cancelled = dispatch(subscriptions, inboundEvent);
+                    } finally {
+                        inboundBusy = false;
+                    }
+                } else {
+                    packet = Packet.fromHandle(msg, type, stage);
+                    cancelled = dispatch(subscriptions, new PacketInboundEvent(ctx, session.getProfile(), session.getPlayer(), packet));
+                }
+
+                if (cancelled) return;
+                // A handler may have replaced the packet.
+                msg = packet.getHandle();
+                type = packet.getType();
             }
+            // The server switches its protocol upon the packets ending a stage, so do we.
+            if (type.getNextStage() != null) session.setStage(type.getNextStage());
         }
 
         super.channelRead(ctx, msg);
@@ -60,15 +143,60 @@ class PacketInterceptor extends ChannelDuplexHandler {
     @Override
     public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
         // Outbound
-        Packet packet = Packet.fromHandle(msg);
-        if (packet != null) {
-            handlePacket(packet);
-            if (callEvent(new PacketOutboundEvent(ctx, profile, player, packet))) {
-                return;
+        PacketType type = PacketType.of(msg.getClass());
+        if (type != null) {
+            traffic.recordPacket(type);
+            handleLogin(type, msg);
+            if (type.isSetCompression()) {
+                // The server inserts the (de)compression handlers once this packet is sent,
+                // move the raw interceptors behind them afterwards.
+                // Until then, inbound frames may already be compressed, the inbound one passes them through unread.
+                RawPacketInterceptor.expectCompression(ctx.pipeline());
+                if (promise.isVoid()) promise = promise.unvoid();
+                promise.addListener(future -> ctx.channel().eventLoop().execute(() -> RawPacketInterceptor.relocate(ctx.pipeline())));
+            }
+            PacketStage stage = stageOf(type);
+            PacketSubscription[] subscriptions = PacketDispatcher.getSubscriptions(type, stage);
+            // Skip wrapping and dispatching entirely if nobody is listening.
+            if (subscriptions.length != 0 || hasListeners(PacketOutboundEvent.getHandlerList())) {
+                Packet packet;
+                boolean cancelled;
+                if (PacketDispatcher.isEventReuse() && !outboundBusy) {
+                    // A handler may write to this channel, which must not reuse the event in use.
+                    outboundBusy = true;
+                    try {
+                        if (outboundEvent == null) {
+                            packet = Packet.fromSharedHandle(msg, type, stage);
+                            outboundEvent = new PacketOutboundEvent(ctx, session.getProfile(), session.getPlayer(), packet);
+                        } else {
+                            packet = outboundEvent.getPacket();
+                            packet.reset(msg, type, stage);
+                            outboundEvent.reset(ctx, session.getProfile(), session.getPlayer(), packet);
+                        }
+                        cancelled = dispatch(subscriptions, outboundEvent);
+                    } finally {
+                        outboundBusy = false;
+                    }
+                } else {
+                    packet = Packet.fromSharedHandle(msg, type, stage);
+                    cancelled = dispatch(subscriptions, new PacketOutboundEvent(ctx, session.getProfile(), session.getPlayer(), packet));
+                }
+
+                if (cancelled) return;
+                // The packet may be shared with other connections, a handler modifying it got a copy for this one.
+                msg = packet.getHandle();
+                type = packet.getType();
             }
+            traffic.beginOutbound(type);
         }
 
-        super.write(ctx, msg, promise);
+        try {
+            super.write(ctx, msg, promise);
+        } finally {
+            traffic.endOutbound();
+        }
+        // Switch only once the packet has been encoded, the raw interceptor reads the stage of the frame meanwhile.
+        if (type != null && type.getNextStage() != null) session.setStage(type.getNextStage());
     }
 
     /**
@@ -88,32 +216,207 @@ class PacketInterceptor extends ChannelDuplexHandler {
     }
 
     /**
-     * Handles certain special packets.
+     * Passes a packet that is about to be broadcast to the outbound handlers, without writing it.
+     * <p>
+     * A fresh event is used, as this may be called from any thread.
+     *
+     * @param ctx the context of this interceptor
+     * @param handle the original packet object
+     * @return the packet to send to this connection, which is a copy or another packet if a handler modified or replaced it,
+     *         or {@code null} if the packet was cancelled for this connection
+     */
+    @Nullable Object fireOutbound(@NotNull ChannelHandlerContext ctx, @NotNull Object handle) {
+        PacketType type = PacketType.of(handle.getClass());
+        if (type == null) return handle;
+
+        PacketStage stage = stageOf(type);
+        PacketSubscription[] subscriptions = PacketDispatcher.getSubscriptions(type, stage);
+        if (subscriptions.length == 0 && !hasListeners(PacketOutboundEvent.getHandlerList())) return handle;
+        Packet packet = Packet.fromSharedHandle(handle, type, stage);
+        if (dispatch(subscriptions, new PacketOutboundEvent(ctx, session.getProfile(), session.getPlayer(), packet))) return null;
+        return packet.getHandle();
+    }
+
+    /**
+     * Writes a broadcast packet that does not pass through this interceptor, counting it like any other packet.
+     * Must be called on the event loop of the channel.
      *
-     * @param packet the packet
+     * @param ctx the context to write from, behind this interceptor
+     * @param msg the message to write, the packet or a frame serialized from it
+     * @param data the frame before compression if the message is written behind the outbound raw interceptor,
+     *             which is then given this frame instead, otherwise {@code null}. It is not released
+     * @param handle the packet
      */
-    private void handlePacket(@NotNull Packet packet) {
+    void writeBehind(@NotNull ChannelHandlerContext ctx, @NotNull Object msg, @Nullable ByteBuf data, @NotNull Object handle) {
+        PacketType type = PacketType.of(handle.getClass());
+        if (type != null) {
+            traffic.recordPacket(type);
+            traffic.beginOutbound(type);
+        }
         try {
-            if (packet.getDirection() == PacketDirection.CLIENTBOUND &&
-                    packet.getStage() == PacketStage.LOGIN &&
-                    "Success".equalsIgnoreCase(packet.getName())) {
-                    // Success Login
-                    this.profile = packet.getFieldValueOfType(GameProfile.class, 0);
-                }
+            if (data != null && RawPacketInterceptor.interceptBehind(ctx.pipeline(), data)) {
+                ReferenceCountUtil.release(msg);
+                return;
+            }
+            ctx.writeAndFlush(msg, ctx.voidPromise());
+        } finally {
+            traffic.endOutbound();
+        }
+    }
 
+    /**
+     * Gets the traffic counters of the connection.
+     *
+     * @return the traffic counters
+     */
+    @NotNull TrafficCounter getTraffic() {
+        return traffic;
+    }
 
-            if (packet.getDirection() == PacketDirection.SERVERBOUND &&
-                    packet.getStage() == PacketStage.LOGIN &&
-                    "Start".equalsIgnoreCase(packet.getName())) {
-                    // Hello Login
-                    this.profile = packet.getFieldValueOfType(GameProfile.class, 0);
-                }
+    /**
+     * Gets the id of the connection, unique for the lifetime of the server.
+     *
+     * @return the connection id
+     */
+    int getConnectionId() {
+        return connectionId;
+    }
 
+    /**
+     * Gets whether the connection is not a real one, such as a replayed connection.
+     *
+     * @return true if the connection is detached
+     */
+    boolean isDetached() {
+        return detached;
+    }
 
-            if (player == null && profile != null) {
-                this.player = Bukkit.getPlayer(profile.getId());
-            }
+    /**
+     * Gets whether the connection is selected for capturing.
+     *
+     * @return true if the connection is captured
+     */
+    boolean isCaptured() {
+        return captured;
+    }
+
+    /**
+     * Sets whether the connection is selected for capturing.
+     *
+     * @param captured true to capture the connection
+     */
+    void setCaptured(boolean captured) {
+        this.captured = captured;
+    }
+
+    /**
+     * Gets the session of the connection.
+     *
+     * @return the session
+     */
+    @NotNull PacketSession getSession() {
+        return session;
+    }
+
+    /**
+     * Gets the current stage of the connection, as far as it has been observed.
+     *
+     * @return the connection stage
+     */
+    @NotNull PacketStage getStage() {
+        return session.getStage();
+    }
+
+    /**
+     * Sets the current stage of the connection.
+     *
+     * @param stage the connection stage
+     */
+    void setStage(@NotNull PacketStage stage) {
+        session.setStage(stage);
+    }
+
+    /**
+     * Gets the stage of a packet: the one given by its class name on older versions,
+     * otherwise the stage the connection is in.
+     *
+     * @param type the packet type
+     * @return the packet stage
+     */
+    private @NotNull PacketStage stageOf(@NotNull PacketType type) {
+        PacketStage stage = type.getStage();
+        return stage == PacketStage.UNKNOWN ? session.getStage() : stage;
+    }
+
+    /**
+     * Binds the profile carried by the login packets to the session. Skipped once the connection is in the play stage.
+     *
+     * @param type the packet type
+     * @param handle the original packet object
+     */
+    private void handleLogin(@NotNull PacketType type, @NotNull Object handle) {
+        if (session.getStage() == PacketStage.PLAY) return;
+        if (!type.isLoginStart() && !type.isLoginSuccess()) return;
+
+        try {
+            GameProfile profile = (GameProfile) Reflection.findAccessor(handle.getClass(), GameProfile.class, 0).get(handle);
+            if (profile != null) session.setProfile(profile);
         } catch (Throwable ignored) {
+            // Newer versions only carry the name and id in the login start packet.
+        }
+    }
+
+    /**
+     * Checks whether any listener is registered to the given handler list.
+     * <p>
+     * {@link HandlerList} rebuilds its listener array whenever a listener is registered or unregistered,
+     * so this is only a volatile read on the hot path.
+     *
+     * @param handlers the handler list of the event
+     * @return true if at least one listener is registered
+     */
+    private static boolean hasListeners(@NotNull HandlerList handlers) {
+        return handlers.getRegisteredListeners().length != 0;
+    }
+
+    /**
+     * Passes the event to the native handlers and the Bukkit listeners.
+     * <p>
+     * Native handlers with {@link EventPriority#MONITOR} are called after the Bukkit listeners, all others before.
+     * Asynchronous handlers receive the event last, once its outcome is final.
+     *
+     * @param subscriptions the native subscriptions of the packet type
+     * @param event the event to pass
+     * @return true if the event was cancelled
+     */
+    private boolean dispatch(@NotNull PacketSubscription[] subscriptions, @NotNull PacketEvent event) {
+        PacketDispatcher.dispatch(subscriptions, event, false);
+        if (hasListeners(event.getHandlers())) {
+            if (ListenerProfiler.isEnabled()) callEventProfiled(event);
+            else callEvent(event);
+        }
+        PacketDispatcher.dispatch(subscriptions, event, true);
+        PacketDispatcher.dispatchAsync(subscriptions, event, asyncQueue);
+        return event.isCancelled();
+    }
+
+    /**
+     * Calls the Bukkit listeners one by one, recording how long each of them takes.
+     *
+     * @param event the event to call
+     */
+    private static void callEventProfiled(@NotNull PacketEvent event) {
+        PacketType type = event.getPacket().getType();
+        for (RegisteredListener listener : event.getHandlers().getRegisteredListeners()) {
+            if (!listener.getPlugin().isEnabled()) continue;
+
+            long start = System.nanoTime();
+            try {
+                listener.callEvent(event);
+            } catch (Throwable e) {
+                PacketListener.getLogger().log(Level.SEVERE, "Could not pass event " + event.getEventName() + " to " + listener.getPlugin().getName(), e);
+            }
+            ListenerProfiler.record(listener, listener.getPlugin(), type, System.nanoTime() - start);
         }
     }
 
@@ -0,0 +1,279 @@
+package cc.meteormc.packetlistener.internal;
+
+import cc.meteormc.packetlistener.PacketIdFilter;
+import cc.meteormc.packetlistener.PacketRateLimiter;
+import cc.meteormc.packetlistener.objects.PacketDirection;
+import cc.meteormc.packetlistener.objects.PacketStage;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.*;
+import io.netty.util.ReferenceCountUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Raw packet interceptor. Serialized packets pass through here before they are decoded or after they are encoded.
+ * <p>
+ * One instance is installed per direction: the inbound one before the {@code decoder}
+ * and the outbound one before the {@code encoder}, behind the (de)compression handlers.
+ *
+ * @author Meteor23333
+ */
+class RawPacketInterceptor extends ChannelDuplexHandler {
+    static final String INBOUND_NAME = NettyPipelineInjector.qualify("raw_inbound");
+    static final String OUTBOUND_NAME = NettyPipelineInjector.qualify("raw_outbound");
+
+    private final PacketDirection direction;
+    private final PacketInterceptor interceptor;
+    // The rate limit buckets of the connection, allocated once a limit is set. Only touched on the event loop.
+    private long[] buckets;
+    // Set once SetCompression is written, until this handler is moved behind the decompressor.
+    private boolean compressionPending;
+
+    /**
+     * Creates a {@link RawPacketInterceptor}.
+     *
+     * @param direction the direction of the packets to intercept
+     * @param interceptor the packet interceptor of the same channel, tracking the stage of the connection
+     */
+    RawPacketInterceptor(@NotNull PacketDirection direction, @NotNull PacketInterceptor interceptor) {
+        this.direction = direction;
+        this.interceptor = interceptor;
+    }
+
+    /**
+     * Creates a {@link RawPacketInterceptor} taking over the state of another one, to install it elsewhere in the pipeline.
+     * Handlers cannot be added to a pipeline twice, so moving one means replacing it.
+     *
+     * @param previous the handler to take over from
+     */
+    private RawPacketInterceptor(@NotNull RawPacketInterceptor previous) {
+        this.direction = previous.direction;
+        this.interceptor = previous.interceptor;
+        this.buckets = previous.buckets;
+        this.compressionPending = previous.compressionPending;
+    }
+
+    /**
+     * Calls {@link ChannelHandlerContext#fireChannelRead(Object)} to forward
+     * to the next {@link ChannelInboundHandler} in the {@link ChannelPipeline}.
+     *
+     * @param ctx the {@link ChannelHandlerContext} for which the read operation is made
+     * @param msg the message to read
+     * @throws Exception thrown if an error occurs
+     */
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (compressionPending && ctx.pipeline().get("decompress") != null) {
+            // The server has inserted the decompressor behind this handler, the frame is compressed and cannot be read.
+            // Pass it on as is and move next to the decoder right away, before the next frame.
+            ctx.fireChannelRead(msg);
+            relocate(ctx.pipeline());
+            return;
+        }
+
+        PacketStage next = null;
+        if (direction == PacketDirection.SERVERBOUND && msg instanceof ByteBuf) {
+            ByteBuf buf = (ByteBuf) msg;
+            interceptor.getTraffic().recordFrame(direction, buf.readableBytes());
+            long varInt = peekVarInt(buf, buf.readerIndex());
+            // Leave malformed frames to the server.
+            if (varInt >= 0) {
+                int packetId = (int) varInt;
+                PacketStage stage = interceptor.getStage();
+                if (stage == PacketStage.HANDSHAKE && packetId == 0) {
+                    next = readHandshake(buf, buf.readerIndex() + (int) (varInt >>> 32));
+                }
+                // Replayed frames are neither recaptured nor subject to the server-wide filters, so the replay stays deterministic.
+                boolean detached = interceptor.isDetached();
+                if (!detached) CaptureWriter.record(interceptor, direction, stage, packetId, buf);
+
+                PacketIdFilter.Action action = detached ? PacketIdFilter.Action.PASS : PacketIdFilter.getAction(stage, packetId);
+                if (action != PacketIdFilter.Action.PASS) {
+                    PacketIdFilter.recordDropped();
+                    ReferenceCountUtil.release(msg);
+                    if (action == PacketIdFilter.Action.DISCONNECT) ctx.channel().close();
+                    return;
+                }
+
+                if (!detached && PacketRateLimiter.isEnabled()) {
+                    if (buckets == null) buckets = PacketRateLimiter.createBuckets();
+                    if (PacketRateLimiter.acquire(ctx, buckets, stage, packetId)) {
+                        ReferenceCountUtil.release(msg);
+                        return;
+                    }
+                }
+
+                if (handle(ctx, buf, varInt)) {
+                    ReferenceCountUtil.release(msg);
+                    return;
+                }
+            }
+        }
+
+        super.channelRead(ctx, msg);
+        // The handshake itself still belongs to the handshake stage when it reaches the interceptor.
+        if (next != null) interceptor.setStage(next);
+    }
+
+    /**
+     * Calls {@link ChannelHandlerContext#write(Object, ChannelPromise)} to forward
+     * to the next {@link ChannelOutboundHandler} in the {@link ChannelPipeline}.
+     *
+     * @param ctx the {@link ChannelHandlerContext} for which the write operation is made
+     * @param msg the message to write
+     * @param promise the {@link ChannelPromise} to notify once the operation completes
+     * @throws Exception thrown if an error occurs
+     */
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (direction == PacketDirection.CLIENTBOUND && msg instanceof ByteBuf && intercept(ctx, (ByteBuf) msg)) {
+            ReferenceCountUtil.release(msg);
+            promise.trySuccess();
+            return;
+        }
+
+        super.write(ctx, msg, promise);
+    }
+
+    /**
+     * Counts and captures an outbound frame, and passes it to the raw handlers.
+     *
+     * @param ctx the ctx of this handler
+     * @param buf the frame, starting with the packet id
+     * @return true if the packet should be dropped
+     */
+    private boolean intercept(@NotNull ChannelHandlerContext ctx, @NotNull ByteBuf buf) {
+        interceptor.getTraffic().recordFrame(direction, buf.readableBytes());
+        long varInt = -1;
+        if (CaptureWriter.isActive() && !interceptor.isDetached()) {
+            varInt = peekVarInt(buf, buf.readerIndex());
+            if (varInt >= 0) CaptureWriter.record(interceptor, direction, interceptor.getStage(), (int) varInt, buf);
+        }
+        return handle(ctx, buf, varInt);
+    }
+
+    /**
+     * Intercepts an outbound frame that is written behind the outbound raw interceptor of a pipeline,
+     * such as a broadcast frame that was compressed once for many connections.
+     * Must be called on the event loop of the channel.
+     *
+     * @param pipeline the pipeline
+     * @param buf the frame before compression, starting with the packet id, which is not released
+     * @return true if the packet should be dropped
+     */
+    static boolean interceptBehind(@NotNull ChannelPipeline pipeline, @NotNull ByteBuf buf) {
+        ChannelHandlerContext ctx = pipeline.context(OUTBOUND_NAME);
+        if (ctx == null || !(ctx.handler() instanceof RawPacketInterceptor)) return false;
+        return ((RawPacketInterceptor) ctx.handler()).intercept(ctx, buf);
+    }
+
+    /**
+     * Passes a serialized packet to the raw handlers.
+     *
+     * @param ctx the ctx
+     * @param buf the frame, starting with the packet id
+     * @param varInt the packet id as returned by {@link RawPacketInterceptor#peekVarInt(ByteBuf, int)}, or {@code -1} to read it
+     * @return true if the packet should be dropped
+     */
+    private boolean handle(@NotNull ChannelHandlerContext ctx, @NotNull ByteBuf buf, long varInt) {
+        PacketDispatcher.RawSubscription[] subscriptions = PacketDispatcher.getRawSubscriptions(direction);
+        if (subscriptions.length == 0) return false;
+
+        if (varInt < 0) varInt = peekVarInt(buf, buf.readerIndex());
+        // Leave malformed frames to the server.
+        if (varInt < 0) return false;
+
+        ByteBuf payload = buf.asReadOnly();
+        payload.readerIndex(buf.readerIndex() + (int) (varInt >>> 32));
+        return PacketDispatcher.dispatchRaw(subscriptions, ctx, direction, (int) varInt, payload);
+    }
+
+    /**
+     * Reads the next stage from a handshake packet without moving the reader index.
+     * <p>
+     * The handshake layout has never changed: protocol version, server address, server port and next state.
+     *
+     * @param buf the frame
+     * @param index the index of the first byte after the packet id
+     * @return the next stage, or {@code null} if the handshake is malformed
+     */
+    private static @Nullable PacketStage readHandshake(@NotNull ByteBuf buf, int index) {
+        long protocol = peekVarInt(buf, index);
+        if (protocol < 0) return null;
+        index += (int) (protocol >>> 32);
+
+        long address = peekVarInt(buf, index);
+        if (address < 0) return null;
+        index += (int) (address >>> 32) + (int) address + 2;
+
+        long next = peekVarInt(buf, index);
+        if (next < 0) return null;
+        switch ((int) next) {
+            case 1:
+                return PacketStage.QUERY;
+            case 2:
+            case 3:
+                // Login and transfer both continue with the login stage.
+                return PacketStage.LOGIN;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Reads a VarInt at the given index without moving the reader index.
+     *
+     * @param buf the buffer
+     * @param index the index of the first byte
+     * @return the length in bytes in the upper and the value in the lower 32 bits, or {@code -1} if malformed
+     */
+    static long peekVarInt(@NotNull ByteBuf buf, int index) {
+        int value = 0;
+        int end = Math.min(buf.writerIndex(), index + 5);
+        for (int i = index; i < end; i++) {
+            byte b = buf.getByte(i);
+            value |= (b & 0x7F) << (7 * (i - index));
+            if ((b & 0x80) == 0) {
+                return ((long) (i - index + 1) << 32) | (value & 0xFFFFFFFFL);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Marks the inbound raw interceptor of a pipeline as expecting compressed frames,
+     * which it passes through until it has been moved behind the decompressor.
+     * Must be called on the event loop of the channel, before SetCompression is written.
+     *
+     * @param pipeline the pipeline
+     */
+    static void expectCompression(@NotNull ChannelPipeline pipeline) {
+        ChannelHandler inbound = pipeline.get(INBOUND_NAME);
+        if (inbound instanceof RawPacketInterceptor) ((RawPacketInterceptor) inbound).compressionPending = true;
+    }
+
+    /**
+     * Moves the raw interceptors of a pipeline back next to the codec,
+     * after the server has inserted the (de)compression handlers in between.
+     * The handlers are replaced by new instances carrying over their state.
+     * Must be called on the event loop of the channel.
+     *
+     * @param pipeline the pipeline
+     */
+    static void relocate(@NotNull ChannelPipeline pipeline) {
+        ChannelHandler inbound = pipeline.get(INBOUND_NAME);
+        if (inbound instanceof RawPacketInterceptor && pipeline.get("decoder") != null) {
+            RawPacketInterceptor moved = new RawPacketInterceptor((RawPacketInterceptor) inbound);
+            // Frames are readable again once behind the decompressor.
+            if (pipeline.get("decompress") != null) moved.compressionPending = false;
+            pipeline.remove(inbound);
+            pipeline.addBefore("decoder", INBOUND_NAME, moved);
+        }
+
+        ChannelHandler outbound = pipeline.get(OUTBOUND_NAME);
+        if (outbound instanceof RawPacketInterceptor && pipeline.get("encoder") != null) {
+            pipeline.remove(outbound);
+            pipeline.addBefore("encoder", OUTBOUND_NAME, new RawPacketInterceptor((RawPacketInterceptor) outbound));
+        }
+    }
+}
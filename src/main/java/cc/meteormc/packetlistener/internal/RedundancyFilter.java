@@ -0,0 +1,330 @@
+package cc.meteormc.packetlistener.internal;
+
+import cc.meteormc.packetlistener.PacketListener;
+import cc.meteormc.packetlistener.PacketSession;
+import cc.meteormc.packetlistener.helper.Reflection;
+import cc.meteormc.packetlistener.objects.Packet;
+import cc.meteormc.packetlistener.objects.PacketStage;
+import cc.meteormc.packetlistener.objects.PacketType;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.*;
+import io.netty.util.ReferenceCountUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.logging.Level;
+
+/**
+ * Outbound handler dropping packets whose content is unchanged since the last packet of the same type and key
+ * was sent to the connection.
+ * <p>
+ * It is installed before the {@code packetlistener_interceptor} once the first rule is registered,
+ * so it sees the packets after the outbound handlers have modified, replaced or cancelled them.
+ * Each connection keeps the content of the last sent packets in a small LRU cache, cleared when the stage
+ * of the connection changes, when a resetting packet is sent and whenever the rules change.
+ *
+ * @author Meteor23333
+ */
+public class RedundancyFilter extends ChannelOutboundHandlerAdapter {
+    static final String NAME = NettyPipelineInjector.qualify("redundancy");
+
+    private static final LongAdder SUPPRESSED = new LongAdder();
+
+    // Indexed by the numeric id of the packet type.
+    private static volatile Rule[] rules = new Rule[0];
+    private static volatile int generation;
+    private static volatile int cacheSize = 256;
+    private static volatile boolean enabled;
+
+    private final PacketInterceptor interceptor;
+    private final Map<CacheKey, Object> lastSent = new LinkedHashMap<CacheKey, Object>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CacheKey, Object> eldest) {
+            return size() > cacheSize;
+        }
+    };
+    private int cachedGeneration;
+    private PacketStage cachedStage;
+
+    /**
+     * Creates a {@link RedundancyFilter}.
+     *
+     * @param interceptor the packet interceptor of the same channel, tracking the stage of the connection
+     */
+    private RedundancyFilter(@NotNull PacketInterceptor interceptor) {
+        this.interceptor = interceptor;
+    }
+
+    /**
+     * Calls {@link ChannelHandlerContext#write(Object, ChannelPromise)} to forward
+     * to the next {@link ChannelOutboundHandler} in the {@link ChannelPipeline}.
+     *
+     * @param ctx the {@link ChannelHandlerContext} for which the write operation is made
+     * @param msg the message to write
+     * @param promise the {@link ChannelPromise} to notify once the operation completes
+     * @throws Exception thrown if an error occurs
+     */
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        Rule[] rules = RedundancyFilter.rules;
+        if (rules.length != 0 && !(msg instanceof ByteBuf)) {
+            PacketType type = PacketType.of(msg.getClass());
+            Rule rule = type != null && type.getId() < rules.length ? rules[type.getId()] : null;
+            if (rule != null && isRedundant(rule, type, msg)) {
+                SUPPRESSED.increment();
+                ReferenceCountUtil.release(msg);
+                promise.trySuccess();
+                return;
+            }
+        }
+
+        super.write(ctx, msg, promise);
+    }
+
+    /**
+     * Records a packet in the cache and checks whether the same content was already sent.
+     * <p>
+     * A resetting packet is compared before the cache is cleared, so a redundant one is still dropped
+     * and leaves the cache as is, while one that is sent clears the cache and is then remembered itself.
+     *
+     * @param rule the rule of the packet type
+     * @param type the packet type
+     * @param handle the original packet object
+     * @return true if the packet should be dropped
+     */
+    private boolean isRedundant(@NotNull Rule rule, @NotNull PacketType type, @NotNull Object handle) {
+        PacketStage stage = interceptor.getStage();
+        if (cachedGeneration != generation || cachedStage != stage) {
+            lastSent.clear();
+            cachedGeneration = generation;
+            cachedStage = stage;
+        }
+        if (rule.key == null) {
+            if (rule.resetting) lastSent.clear();
+            return false;
+        }
+
+        Object key;
+        Object content;
+        try {
+            Packet packet = Packet.fromHandle(handle, type, stage);
+            key = rule.key.apply(packet);
+            content = rule.content.apply(packet);
+        } catch (Throwable e) {
+            if (!rule.failed) {
+                rule.failed = true;
+                PacketListener.getLogger().log(Level.WARNING, "Could not extract the content of " + type + ", further failures are ignored", e);
+            }
+            if (rule.resetting) lastSent.clear();
+            return false;
+        }
+
+        CacheKey cacheKey = new CacheKey(type, key);
+        // Packets without content are always sent and forget the previous one.
+        if (content == null) {
+            if (rule.resetting) lastSent.clear();
+            else lastSent.remove(cacheKey);
+            return false;
+        }
+        Object previous = lastSent.get(cacheKey);
+        if (previous != null && Objects.deepEquals(previous, content)) return true;
+
+        if (rule.resetting) lastSent.clear();
+        lastSent.put(cacheKey, content);
+        return false;
+    }
+
+    /**
+     * Drops the packets of a type whose content is unchanged since the last one with the same key,
+     * and installs the filter on first use.
+     *
+     * @param type the packet type
+     * @param key the extractor of the key, distinguishing the packets of the type that are compared
+     * @param content the extractor of the compared content, or {@code null} to compare the values of all fields
+     */
+    public static synchronized void setDeduplicated(@NotNull PacketType type, @NotNull Function<Packet, Object> key, @Nullable Function<Packet, Object> content) {
+        Rule previous = getRule(type);
+        setRule(type, new Rule(key, content == null ? RedundancyFilter::getFieldValues : content, previous != null && previous.resetting));
+    }
+
+    /**
+     * Sets whether sending a packet of a type clears the cache of the connection.
+     *
+     * @param type the packet type
+     * @param resetting true to clear the cache whenever a packet of the type is sent
+     */
+    public static synchronized void setResetting(@NotNull PacketType type, boolean resetting) {
+        Rule previous = getRule(type);
+        if (previous == null || previous.key == null) {
+            if (resetting) setRule(type, new Rule(null, null, true));
+            else if (previous != null) setRule(type, null);
+        } else {
+            setRule(type, new Rule(previous.key, previous.content, resetting));
+        }
+    }
+
+    /**
+     * Removes the rule of a packet type, including its resetting flag.
+     *
+     * @param type the packet type
+     */
+    public static synchronized void removeRule(@NotNull PacketType type) {
+        if (getRule(type) != null) setRule(type, null);
+    }
+
+    /**
+     * Gets the rule of a packet type. Must be called while holding the class lock.
+     *
+     * @param type the packet type
+     * @return the rule, or {@code null} if none
+     */
+    private static @Nullable Rule getRule(@NotNull PacketType type) {
+        return type.getId() < rules.length ? rules[type.getId()] : null;
+    }
+
+    /**
+     * Replaces the rule of a packet type and installs the filter on first use. Must be called while holding the class lock.
+     *
+     * @param type the packet type
+     * @param rule the rule, or {@code null} to remove it
+     */
+    private static void setRule(@NotNull PacketType type, @Nullable Rule rule) {
+        Rule[] updated = Arrays.copyOf(rules, Math.max(rules.length, type.getId() + 1));
+        updated[type.getId()] = rule;
+        update(updated);
+        if (rule != null && !enabled) {
+            enabled = true;
+            for (PacketSession session : PacketSession.getAll()) {
+                Channel channel = session.getChannel();
+                channel.eventLoop().execute(() -> install(channel.pipeline()));
+            }
+        }
+    }
+
+    /**
+     * Removes all rules. The installed filters stay in place and pass all packets through.
+     */
+    public static synchronized void clear() {
+        update(new Rule[0]);
+    }
+
+    /**
+     * Publishes new rules, which invalidates the caches of all connections.
+     *
+     * @param updated the new rules
+     */
+    private static void update(@NotNull Rule[] updated) {
+        generation++;
+        rules = updated;
+    }
+
+    /**
+     * Sets the number of packets remembered per connection.
+     *
+     * @param size the cache size
+     * @throws IllegalArgumentException if the size is not positive
+     */
+    public static void setCacheSize(int size) throws IllegalArgumentException {
+        if (size <= 0) throw new IllegalArgumentException("Cache size must be positive: " + size);
+        cacheSize = size;
+    }
+
+    /**
+     * Forgets the packets sent to a connection, so that the next ones are sent regardless.
+     *
+     * @param channel the channel of the connection
+     */
+    public static void invalidate(@NotNull Channel channel) {
+        channel.eventLoop().execute(() -> {
+            ChannelHandler filter = channel.pipeline().get(NAME);
+            if (filter instanceof RedundancyFilter) ((RedundancyFilter) filter).lastSent.clear();
+        });
+    }
+
+    /**
+     * Gets the number of packets dropped as redundant since the server started.
+     *
+     * @return the number of dropped packets
+     */
+    public static long getSuppressedCount() {
+        return SUPPRESSED.sum();
+    }
+
+    /**
+     * Installs the filter before the interceptor of a pipeline, if any rule has ever been registered.
+     * Must be called on the event loop of the channel.
+     *
+     * @param pipeline the pipeline
+     */
+    static void install(@NotNull ChannelPipeline pipeline) {
+        if (!enabled || pipeline.get(NAME) instanceof RedundancyFilter) return;
+
+        ChannelHandler interceptor = pipeline.get(PacketInterceptor.NAME);
+        if (!(interceptor instanceof PacketInterceptor)) return;
+        if (pipeline.get(NAME) != null) pipeline.remove(NAME);
+        pipeline.addBefore(PacketInterceptor.NAME, NAME, new RedundancyFilter((PacketInterceptor) interceptor));
+    }
+
+    /**
+     * Gets the values of all fields of a packet, the default content of a rule.
+     *
+     * @param packet the packet
+     * @return the field values in declaration order
+     */
+    private static @NotNull Object[] getFieldValues(@NotNull Packet packet) {
+        Object handle = packet.getHandle();
+        Object[] values = new Object[Reflection.getAccessorCount(handle.getClass())];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Reflection.getAccessor(handle.getClass(), i).get(handle);
+        }
+        return values;
+    }
+
+    /**
+     * The rule of a packet type.
+     */
+    private static class Rule {
+        private final Function<Packet, Object> key;
+        private final Function<Packet, Object> content;
+        private final boolean resetting;
+        private volatile boolean failed;
+
+        private Rule(@Nullable Function<Packet, Object> key, @Nullable Function<Packet, Object> content, boolean resetting) {
+            this.key = key;
+            this.content = content;
+            this.resetting = resetting;
+        }
+    }
+
+    /**
+     * The key of a cached packet: its type and the key extracted from it.
+     */
+    private static class CacheKey {
+        private final PacketType type;
+        private final Object key;
+
+        private CacheKey(@NotNull PacketType type, @Nullable Object key) {
+            this.type = type;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CacheKey)) return false;
+            CacheKey other = (CacheKey) o;
+            return type == other.type && Objects.equals(key, other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * type.hashCode() + Objects.hashCode(key);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package cc.meteormc.packetlistener.internal;
+
+import cc.meteormc.packetlistener.PacketBatchHandler;
+import cc.meteormc.packetlistener.PacketListener;
+import cc.meteormc.packetlistener.event.PacketEvent;
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Collects packets on the Netty I/O threads and delivers them to the {@link PacketBatchHandler}s
+ * once per server tick, using a single scheduler task for all connections.
+ *
+ * @author Meteor23333
+ */
+public class TickBatcher {
+    private static final int MAX_PENDING = 4096;
+    private static final AttributeKey<ConnectionBatch> BATCH_KEY = AttributeKey.valueOf(NettyPipelineInjector.qualify("batch"));
+    private static final Queue<ConnectionBatch> DIRTY = new ConcurrentLinkedQueue<>();
+
+    private static BukkitTask task;
+
+    /**
+     * Queues an event for the next tick. Called on the Netty I/O thread of the connection.
+     *
+     * @param event the event to queue
+     * @param handler the handler receiving the event
+     * @param plugin the plugin owning the handler
+     */
+    public static void enqueue(@NotNull PacketEvent event, @NotNull PacketBatchHandler handler, @NotNull Plugin plugin) {
+        Channel channel = event.getCtx().channel();
+        Attribute<ConnectionBatch> attribute = channel.attr(BATCH_KEY);
+        ConnectionBatch batch = attribute.get();
+        if (batch == null) {
+            batch = new ConnectionBatch();
+            ConnectionBatch previous = attribute.setIfAbsent(batch);
+            if (previous != null) batch = previous;
+        }
+
+        if (batch.size.incrementAndGet() > MAX_PENDING) {
+            // The main thread is lagging behind, do not let the queue grow without bounds.
+            batch.size.decrementAndGet();
+            return;
+        }
+
+        batch.entries.offer(new Entry(handler, plugin, PacketDispatcher.retain(event)));
+        if (batch.dirty.compareAndSet(false, true)) DIRTY.offer(batch);
+    }
+
+    /**
+     * Starts the tick task if it is not running. Must be called on the main thread.
+     *
+     * @param owner the plugin scheduling the task
+     */
+    public static synchronized void start(@NotNull Plugin owner) {
+        if (task != null && !task.isCancelled()) return;
+        task = Bukkit.getScheduler().runTaskTimer(owner, TickBatcher::flush, 1, 1);
+    }
+
+    /**
+     * Delivers the events queued before this tick. Runs on the main thread once per tick.
+     * <p>
+     * Only the batches and events present when the flush starts are delivered,
+     * those queued by the I/O threads meanwhile wait for the next tick, so that the flush always ends.
+     */
+    private static void flush() {
+        Map<PacketBatchHandler, List<PacketEvent>> grouped = new IdentityHashMap<>();
+        Map<PacketBatchHandler, Plugin> owners = new IdentityHashMap<>();
+        for (int batches = DIRTY.size(); batches > 0; batches--) {
+            ConnectionBatch batch = DIRTY.poll();
+            if (batch == null) break;
+            batch.dirty.set(false);
+
+            Entry entry;
+            for (int pending = batch.size.get(); pending > 0 && (entry = batch.entries.poll()) != null; pending--) {
+                batch.size.decrementAndGet();
+                grouped.computeIfAbsent(entry.handler, handler -> new ArrayList<>()).add(entry.event);
+                owners.put(entry.handler, entry.plugin);
+            }
+            if (!batch.entries.isEmpty() && batch.dirty.compareAndSet(false, true)) DIRTY.offer(batch);
+
+            for (Map.Entry<PacketBatchHandler, List<PacketEvent>> group : grouped.entrySet()) {
+                Plugin plugin = owners.get(group.getKey());
+                if (!plugin.isEnabled()) continue;
+
+                try {
+                    group.getKey().handle(group.getValue());
+                } catch (Throwable e) {
+                    PacketListener.getLogger().log(Level.SEVERE, "Could not pass packet batch to " + plugin.getName(), e);
+                }
+            }
+            grouped.clear();
+            owners.clear();
+        }
+    }
+
+    /**
+     * The pending events of one connection.
+     */
+    private static class ConnectionBatch {
+        private final Queue<Entry> entries = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean dirty = new AtomicBoolean();
+    }
+
+    /**
+     * A pending event together with its handler.
+     */
+    private static class Entry {
+        private final PacketBatchHandler handler;
+        private final Plugin plugin;
+        private final PacketEvent event;
+
+        private Entry(PacketBatchHandler handler, Plugin plugin, PacketEvent event) {
+            this.handler = handler;
+            this.plugin = plugin;
+            this.event = event;
+        }
+    }
+
+    /**
+     * This class cannot be instantiated!
+     */
+    private TickBatcher() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+}
@@ -0,0 +1,269 @@
+package cc.meteormc.packetlistener.internal;
+
+import cc.meteormc.packetlistener.objects.PacketDirection;
+import cc.meteormc.packetlistener.objects.PacketType;
+import cc.meteormc.packetlistener.objects.TrafficSnapshot;
+import io.netty.channel.Channel;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Traffic counters of a connection, indexed by {@link PacketType#getId()}.
+ * <p>
+ * The counters of a connection are plain arrays, only written on its event loop and read racily by snapshots.
+ * The server-wide counters are striped {@link LongAdder}s, shared by all event loops.
+ *
+ * @author Meteor23333
+ */
+public class TrafficCounter {
+    private static final int DIRECTIONS = PacketDirection.values().length;
+    private static final Map<Channel, TrafficCounter> CONNECTIONS = new ConcurrentHashMap<>();
+    private static final LongAdder[] GLOBAL_TOTAL_BYTES = newAdders(DIRECTIONS);
+
+    private static volatile LongAdder[] globalPackets = new LongAdder[0];
+    private static volatile LongAdder[] globalBytes = new LongAdder[0];
+
+    private long[] packets = new long[0];
+    private long[] bytes = new long[0];
+    private final long[] totalBytes = new long[DIRECTIONS];
+    private final boolean global;
+
+    // The serialized size of the inbound packet being decoded, and the type of the outbound packet being encoded.
+    private int pendingInboundBytes;
+    private PacketType pendingOutboundType;
+
+    /**
+     * Creates a {@link TrafficCounter}.
+     *
+     * @param global true to add to the server-wide counters as well
+     */
+    private TrafficCounter(boolean global) {
+        this.global = global;
+    }
+
+    /**
+     * Creates the counters of a connection and registers them until the channel is closed.
+     *
+     * @param channel the channel of the connection
+     * @return the counters
+     */
+    static @NotNull TrafficCounter register(@NotNull Channel channel) {
+        TrafficCounter counter = new TrafficCounter(true);
+        CONNECTIONS.put(channel, counter);
+        channel.closeFuture().addListener(future -> CONNECTIONS.remove(channel));
+        return counter;
+    }
+
+    /**
+     * Creates the counters of a connection that is not a real one, such as a replayed connection.
+     * They are neither registered nor added to the server-wide counters.
+     *
+     * @return the counters
+     */
+    static @NotNull TrafficCounter detached() {
+        return new TrafficCounter(false);
+    }
+
+    /**
+     * Records a packet reaching the interceptor.
+     * <p>
+     * An inbound packet is attributed the size of the frame it was decoded from.
+     *
+     * @param type the packet type
+     */
+    void recordPacket(@NotNull PacketType type) {
+        int id = type.getId();
+        if (id >= packets.length) grow(id);
+        packets[id]++;
+        if (global) getGlobalPackets(id).increment();
+
+        if (type.getDirection() == PacketDirection.SERVERBOUND && pendingInboundBytes != 0) {
+            bytes[id] += pendingInboundBytes;
+            if (global) getGlobalBytes(id).add(pendingInboundBytes);
+            pendingInboundBytes = 0;
+        }
+    }
+
+    /**
+     * Remembers the outbound packet being written, so that its encoded frame can be attributed to it.
+     *
+     * @param type the packet type
+     */
+    void beginOutbound(@NotNull PacketType type) {
+        pendingOutboundType = type;
+    }
+
+    /**
+     * Forgets the outbound packet being written, once the write has returned.
+     */
+    void endOutbound() {
+        pendingOutboundType = null;
+    }
+
+    /**
+     * Records a serialized packet next to the codec.
+     *
+     * @param direction the direction of the frame
+     * @param size the size of the frame in bytes
+     */
+    void recordFrame(@NotNull PacketDirection direction, int size) {
+        totalBytes[direction.ordinal()] += size;
+        if (global) GLOBAL_TOTAL_BYTES[direction.ordinal()].add(size);
+
+        if (direction == PacketDirection.SERVERBOUND) {
+            pendingInboundBytes = size;
+        } else if (pendingOutboundType != null) {
+            int id = pendingOutboundType.getId();
+            bytes[id] += size;
+            if (global) getGlobalBytes(id).add(size);
+            pendingOutboundType = null;
+        }
+    }
+
+    /**
+     * Copies the counters of this connection.
+     *
+     * @return the snapshot
+     */
+    @NotNull TrafficSnapshot snapshot() {
+        long[] packets = this.packets;
+        long[] bytes = this.bytes;
+        long[][] packetsByDirection = new long[DIRECTIONS][packets.length];
+        long[][] bytesByDirection = new long[DIRECTIONS][packets.length];
+        for (int id = 0; id < packets.length && id < bytes.length; id++) {
+            PacketType type = PacketType.getById(id);
+            if (type == null) continue;
+            packetsByDirection[type.getDirection().ordinal()][id] = packets[id];
+            bytesByDirection[type.getDirection().ordinal()][id] = bytes[id];
+        }
+        return new TrafficSnapshot(packetsByDirection, bytesByDirection, totalBytes.clone());
+    }
+
+    /**
+     * Grows the arrays of this connection to hold the given packet type id.
+     *
+     * @param id the packet type id
+     */
+    private void grow(int id) {
+        int length = Math.max(id + 1, packets.length + 16);
+        packets = Arrays.copyOf(packets, length);
+        bytes = Arrays.copyOf(bytes, length);
+    }
+
+    /**
+     * Gets a snapshot of the counters of a connection.
+     *
+     * @param channel the channel of the connection
+     * @return the snapshot, or {@code null} if the connection is not intercepted
+     */
+    public static @Nullable TrafficSnapshot get(@NotNull Channel channel) {
+        TrafficCounter counter = CONNECTIONS.get(channel);
+        return counter == null ? null : counter.snapshot();
+    }
+
+    /**
+     * Gets snapshots of the counters of all open connections.
+     *
+     * @return the snapshots by channel
+     */
+    public static @NotNull Map<Channel, TrafficSnapshot> getAll() {
+        Map<Channel, TrafficSnapshot> snapshots = new HashMap<>();
+        CONNECTIONS.forEach((channel, counter) -> snapshots.put(channel, counter.snapshot()));
+        return Collections.unmodifiableMap(snapshots);
+    }
+
+    /**
+     * Gets a snapshot of the server-wide counters, including closed connections.
+     *
+     * @return the snapshot
+     */
+    public static @NotNull TrafficSnapshot getGlobal() {
+        LongAdder[] packets = globalPackets;
+        LongAdder[] bytes = globalBytes;
+        long[][] packetsByDirection = new long[DIRECTIONS][packets.length];
+        long[][] bytesByDirection = new long[DIRECTIONS][packets.length];
+        for (int id = 0; id < packets.length && id < bytes.length; id++) {
+            PacketType type = PacketType.getById(id);
+            if (type == null) continue;
+            packetsByDirection[type.getDirection().ordinal()][id] = packets[id].sum();
+            bytesByDirection[type.getDirection().ordinal()][id] = bytes[id].sum();
+        }
+
+        long[] totalBytes = new long[DIRECTIONS];
+        for (int i = 0; i < DIRECTIONS; i++) {
+            totalBytes[i] = GLOBAL_TOTAL_BYTES[i].sum();
+        }
+        return new TrafficSnapshot(packetsByDirection, bytesByDirection, totalBytes);
+    }
+
+    /**
+     * Gets the server-wide packet counter of a packet type id.
+     *
+     * @param id the packet type id
+     * @return the counter
+     */
+    private static @NotNull LongAdder getGlobalPackets(int id) {
+        LongAdder[] counters = globalPackets;
+        if (id >= counters.length) counters = growGlobal(id)[0];
+        return counters[id];
+    }
+
+    /**
+     * Gets the server-wide byte counter of a packet type id.
+     *
+     * @param id the packet type id
+     * @return the counter
+     */
+    private static @NotNull LongAdder getGlobalBytes(int id) {
+        LongAdder[] counters = globalBytes;
+        if (id >= counters.length) counters = growGlobal(id)[1];
+        return counters[id];
+    }
+
+    /**
+     * Grows the server-wide counters to hold the given packet type id.
+     *
+     * @param id the packet type id
+     * @return the packet and the byte counters
+     */
+    private static synchronized LongAdder[][] growGlobal(int id) {
+        if (id >= globalPackets.length) {
+            int length = Math.max(id + 1, globalPackets.length + 16);
+            globalBytes = grow(globalBytes, length);
+            globalPackets = grow(globalPackets, length);
+        }
+        return new LongAdder[][]{globalPackets, globalBytes};
+    }
+
+    /**
+     * Copies an array of counters into a longer one, filling the new slots.
+     *
+     * @param counters the counters
+     * @param length the new length
+     * @return the grown array
+     */
+    private static LongAdder[] grow(LongAdder[] counters, int length) {
+        LongAdder[] grown = Arrays.copyOf(counters, length);
+        for (int i = counters.length; i < length; i++) {
+            grown[i] = new LongAdder();
+        }
+        return grown;
+    }
+
+    /**
+     * Creates an array of counters.
+     *
+     * @param length the length
+     * @return the counters
+     */
+    private static LongAdder[] newAdders(int length) {
+        return grow(new LongAdder[0], length);
+    }
+}
@@ -0,0 +1,131 @@
+package cc.meteormc.packetlistener.objects;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A serialized packet read back from a capture file.
+ *
+ * @author Meteor23333
+ */
+public final class CapturedPacket {
+    private final long position;
+    private final long nanos;
+    private final int connectionId;
+    private final PacketDirection direction;
+    private final PacketStage stage;
+    private final int packetId;
+    private final byte[] frame;
+
+    /**
+     * Creates a {@link CapturedPacket}.
+     *
+     * @param position the position of the record in the capture
+     * @param nanos the time of the packet in nanoseconds since the capture start
+     * @param connectionId the id of the connection
+     * @param direction the direction of the packet
+     * @param stage the stage of the connection when the packet was recorded
+     * @param packetId the protocol id of the packet
+     * @param frame the frame, starting with the packet id
+     */
+    @ApiStatus.Internal
+    public CapturedPacket(long position, long nanos, int connectionId, @NotNull PacketDirection direction, @NotNull PacketStage stage, int packetId, @NotNull byte[] frame) {
+        this.position = position;
+        this.nanos = nanos;
+        this.connectionId = connectionId;
+        this.direction = direction;
+        this.stage = stage;
+        this.packetId = packetId;
+        this.frame = frame;
+    }
+
+    /**
+     * Gets the position of the record in the capture. Records are ordered by position,
+     * which is also the order in which the packets of a connection passed through its pipeline.
+     *
+     * @return the position
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Gets the time of the packet.
+     *
+     * @return the time in nanoseconds since the capture start
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Gets the id of the connection, unique within the capture.
+     *
+     * @return the connection id
+     */
+    public int getConnectionId() {
+        return connectionId;
+    }
+
+    /**
+     * Gets the direction of the packet.
+     *
+     * @return the packet direction
+     */
+    public @NotNull PacketDirection getDirection() {
+        return direction;
+    }
+
+    /**
+     * Gets the stage of the connection when the packet was recorded.
+     *
+     * @return the packet stage
+     */
+    public @NotNull PacketStage getStage() {
+        return stage;
+    }
+
+    /**
+     * Gets the protocol id of the packet.
+     *
+     * @return the packet id
+     */
+    public int getPacketId() {
+        return packetId;
+    }
+
+    /**
+     * Gets the size of the frame.
+     *
+     * @return the size in bytes
+     */
+    public int getSize() {
+        return frame.length;
+    }
+
+    /**
+     * Gets the frame as it was seen next to the codec, uncompressed and starting with the packet id.
+     *
+     * @return a new buffer wrapping the frame, without copying
+     */
+    public @NotNull ByteBuf getFrame() {
+        return Unpooled.wrappedBuffer(frame);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s{position=%d, nanos=%d, connection=%d, direction=%s, stage=%s, packetId=0x%02X, size=%d}",
+                this.getClass().getSimpleName(),
+                this.position,
+                this.nanos,
+                this.connectionId,
+                this.direction,
+                this.stage,
+                this.packetId,
+                this.frame.length
+        );
+    }
+}
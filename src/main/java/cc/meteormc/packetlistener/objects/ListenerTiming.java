@@ -0,0 +1,161 @@
+package cc.meteormc.packetlistener.objects;
+
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A point-in-time copy of the dispatch times of one listener for one packet type.
+ * <p>
+ * Dispatch times are kept in a histogram with power-of-two buckets: bucket {@code i} counts the calls
+ * that took at least {@code 2^i} and less than {@code 2^(i + 1)} nanoseconds.
+ *
+ * @author Meteor23333
+ */
+public final class ListenerTiming {
+    private final Plugin plugin;
+    private final String listener;
+    private final PacketType type;
+    private final long count;
+    private final long totalNanos;
+    private final long maxNanos;
+    private final long slowCount;
+    private final long[] histogram;
+
+    /**
+     * Creates a {@link ListenerTiming}.
+     *
+     * @param plugin the plugin owning the listener
+     * @param listener the description of the listener
+     * @param type the packet type
+     * @param count the number of calls
+     * @param totalNanos the total dispatch time
+     * @param maxNanos the longest dispatch time
+     * @param slowCount the number of calls above the slow listener threshold
+     * @param histogram the number of calls per power-of-two bucket
+     */
+    @ApiStatus.Internal
+    public ListenerTiming(@NotNull Plugin plugin, @NotNull String listener, @NotNull PacketType type, long count, long totalNanos, long maxNanos, long slowCount, long[] histogram) {
+        this.plugin = plugin;
+        this.listener = listener;
+        this.type = type;
+        this.count = count;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+        this.slowCount = slowCount;
+        this.histogram = histogram;
+    }
+
+    /**
+     * Gets the plugin owning the listener.
+     *
+     * @return the plugin
+     */
+    public @NotNull Plugin getPlugin() {
+        return plugin;
+    }
+
+    /**
+     * Gets the description of the listener, the class name of the Bukkit listener or of the native handler.
+     *
+     * @return the description
+     */
+    public @NotNull String getListener() {
+        return listener;
+    }
+
+    /**
+     * Gets the packet type.
+     *
+     * @return the packet type
+     */
+    public @NotNull PacketType getType() {
+        return type;
+    }
+
+    /**
+     * Gets the number of calls.
+     *
+     * @return the number of calls
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the total dispatch time.
+     *
+     * @return the total time in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Gets the mean dispatch time.
+     *
+     * @return the mean time in nanoseconds
+     */
+    public long getMeanNanos() {
+        return count == 0 ? 0 : totalNanos / count;
+    }
+
+    /**
+     * Gets the longest dispatch time.
+     *
+     * @return the longest time in nanoseconds
+     */
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * Gets the number of calls above the slow listener threshold.
+     *
+     * @return the number of slow calls
+     */
+    public long getSlowCount() {
+        return slowCount;
+    }
+
+    /**
+     * Estimates a percentile of the dispatch time from the histogram.
+     *
+     * @param percentile the percentile, between {@code 0} and {@code 100}
+     * @return the upper bound of the bucket containing the percentile in nanoseconds, at most the longest dispatch time
+     */
+    public long getPercentileNanos(double percentile) {
+        long rank = (long) Math.ceil(count * Math.max(0, Math.min(100, percentile)) / 100);
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank && seen != 0) return Math.min(maxNanos, (2L << i) - 1);
+        }
+        return maxNanos;
+    }
+
+    /**
+     * Gets the number of calls per power-of-two bucket.
+     *
+     * @return a copy of the histogram
+     */
+    public long[] getHistogram() {
+        return histogram.clone();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s{plugin=%s, listener=%s, type=%s, count=%d, meanNanos=%d, p99Nanos=%d, maxNanos=%d, slowCount=%d}",
+                getClass().getSimpleName(),
+                plugin.getName(),
+                listener,
+                type.getFullName(),
+                count,
+                getMeanNanos(),
+                getPercentileNanos(99),
+                maxNanos,
+                slowCount
+        );
+    }
+}
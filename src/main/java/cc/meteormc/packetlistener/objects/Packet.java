@@ -1,26 +1,30 @@
 package cc.meteormc.packetlistener.objects;
 
 import cc.meteormc.packetlistener.helper.Reflection;
-import org.apache.commons.lang3.reflect.FieldUtils;
+import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.Range;
 
 import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * A network packet wrapper that makes it easy to perform certain actions without relying on NMS.
+ * <p>
+ * The server often writes the same original packet object to many connections, so the wrappers of outbound packets
+ * are copy-on-write: the first modification through the wrapper replaces its handle with a shallow copy,
+ * and the interceptor sends that copy to the connection of the event instead, leaving the other connections untouched.
+ * Objects referred to by the fields, such as lists, are still shared, so replace them rather than modify them.
  *
  * @author Meteor23333
  */
 public class Packet {
-    private final Object handle;
-    private final PacketStage stage;
-    private final PacketDirection direction;
-    private final String name;
+    private Object handle;
+    private PacketType type;
+    private PacketStage stage;
+    private boolean shared;
+    private boolean copied;
 
     // Damn it spigot mappings — why are the packet class names so chaotic?
     public static final Pattern PACKET_PATTERN = Pattern.compile("(Clientbound|Serverbound)(.+)Packet");
@@ -30,59 +34,103 @@ public class Packet {
      * Creates a {@link Packet}.
      *
      * @param handle the handle
+     * @param type the packet type
      * @param stage the packet stage
-     * @param direction the packet direction
-     * @param name the packet simple name
+     * @param shared true if the handle may be shared with other connections
      */
-    private Packet(Object handle, PacketStage stage, PacketDirection direction, String name) {
+    private Packet(Object handle, PacketType type, PacketStage stage, boolean shared) {
         this.handle = handle;
+        this.type = type;
         this.stage = stage;
-        this.direction = direction;
-        this.name = name;
+        this.shared = shared;
     }
 
     /**
      * Wraps the given original packet object in a {@link Packet}.
+     * <p>
+     * Without a connection, the stage is the one given by the class name, which is {@link PacketStage#UNKNOWN} on newer versions.
      *
      * @param handle the original packet object to be wrapped
      * @return the wrapped packet, or {@code null} if invalid
+     * @see PacketType#of(Class)
      */
     public static @Nullable Packet fromHandle(@NotNull Object handle) {
-        Class<?> clazz = handle.getClass();
-        String className = clazz.getSimpleName();
-        String packageName = clazz.getPackage().getName();
-        if (packageName.startsWith("net.minecraft")) {
-            Matcher matcher = PACKET_PATTERN.matcher(className);
-            if (matcher.matches()) {
-                String direction = matcher.group(1);
-                String name = matcher.group(2);
-                return new Packet(
-                        handle,
-                        PacketStage.UNKNOWN,
-                        PacketDirection.getBySpigotName(direction),
-                        name
-                );
-            }
+        PacketType type = PacketType.of(handle.getClass());
+        return type == null ? null : new Packet(handle, type, type.getStage(), false);
+    }
 
-            Matcher legacyMatcher = LEGACY_PACKET_PATTERN.matcher(className);
-            if (legacyMatcher.matches()) {
-                String stage = legacyMatcher.group(1);
-                String direction = legacyMatcher.group(2);
-                String name = legacyMatcher.group(3);
-                return new Packet(
-                        handle,
-                        PacketStage.getBySpigotName(stage),
-                        PacketDirection.getBySpigotName(direction),
-                        name
-                );
-            }
-        }
+    /**
+     * Wraps the given original packet object in a {@link Packet}, using an already resolved type.
+     *
+     * @param handle the original packet object to be wrapped
+     * @param type the type of the original packet object, as returned by {@link PacketType#of(Class)}
+     * @return the wrapped packet
+     */
+    @ApiStatus.Internal
+    public static @NotNull Packet fromHandle(@NotNull Object handle, @NotNull PacketType type) {
+        return new Packet(handle, type, type.getStage(), false);
+    }
+
+    /**
+     * Wraps the given original packet object in a {@link Packet}, stamped with the stage of the connection it belongs to.
+     *
+     * @param handle the original packet object to be wrapped
+     * @param type the type of the original packet object, as returned by {@link PacketType#of(Class)}
+     * @param stage the stage of the connection when the packet is handled
+     * @return the wrapped packet
+     */
+    @ApiStatus.Internal
+    public static @NotNull Packet fromHandle(@NotNull Object handle, @NotNull PacketType type, @NotNull PacketStage stage) {
+        return new Packet(handle, type, stage, false);
+    }
 
-        return null;
+    /**
+     * Wraps the given original packet object in a copy-on-write {@link Packet}, stamped with the stage of the connection it belongs to.
+     *
+     * @param handle the original packet object to be wrapped, which may be shared with other connections
+     * @param type the type of the original packet object, as returned by {@link PacketType#of(Class)}
+     * @param stage the stage of the connection when the packet is handled
+     * @return the wrapped packet
+     */
+    @ApiStatus.Internal
+    public static @NotNull Packet fromSharedHandle(@NotNull Object handle, @NotNull PacketType type, @NotNull PacketStage stage) {
+        return new Packet(handle, type, stage, true);
+    }
+
+    /**
+     * Points this wrapper at another original packet object.
+     * <p>
+     * This is used by the interceptor to reuse wrappers when event reuse is enabled,
+     * plugins should never call it.
+     *
+     * @param handle the original packet object
+     * @param type the type of the original packet object
+     * @param stage the stage of the connection when the packet is handled
+     */
+    @ApiStatus.Internal
+    public void reset(@NotNull Object handle, @NotNull PacketType type, @NotNull PacketStage stage) {
+        this.handle = handle;
+        this.type = type;
+        this.stage = stage;
+        this.copied = false;
+    }
+
+    /**
+     * Creates an independent copy of this wrapper, wrapping the same original packet object.
+     * <p>
+     * Use this to keep a packet beyond the handler call when event reuse is enabled.
+     * The copy is copy-on-write if this wrapper is, as the handle may be in the middle of being sent.
+     *
+     * @return a new wrapper of the same original packet object
+     */
+    public @NotNull Packet snapshot() {
+        return new Packet(handle, type, stage, shared);
     }
 
     /**
      * Gets the original packet object.
+     * <p>
+     * Do not modify it directly, it may be shared with other connections; use {@link Packet#getMutableHandle()} instead.
      *
      * @return the handle
      */
@@ -90,8 +138,60 @@ public class Packet {
         return handle;
     }
 
+    /**
+     * Gets the original packet object for modification.
+     * <p>
+     * If the wrapper is copy-on-write and has not been modified yet, the handle is first replaced with a shallow copy,
+     * which is then sent instead of the original object.
+     * <p>
+     * The fields of packets that are records cannot be written even on the copy;
+     * create a new packet and pass it to {@link Packet#setHandle(Object)} instead.
+     *
+     * @return the handle, private to this wrapper
+     * @throws IllegalArgumentException if the handle cannot be copied
+     */
+    public @NotNull Object getMutableHandle() throws IllegalArgumentException {
+        if (shared && !copied) {
+            handle = Reflection.copy(handle);
+            copied = true;
+        }
+        return handle;
+    }
+
+    /**
+     * Replaces the original packet object, which is then sent or received instead.
+     * <p>
+     * The handlers called afterwards see the new packet, even if they did not subscribe to its type.
+     *
+     * @param handle the new original packet object, owned by this wrapper from now on
+     * @throws IllegalArgumentException if the object is not a packet or if its direction differs
+     */
+    public void setHandle(@NotNull Object handle) throws IllegalArgumentException {
+        PacketType type = PacketType.of(handle.getClass());
+        if (type == null) throw new IllegalArgumentException("Not a packet: " + handle.getClass().getName());
+        if (type.getDirection() != this.type.getDirection()) {
+            throw new IllegalArgumentException("Cannot replace a " + this.type.getDirection() + " packet with a " + type.getDirection() + " packet");
+        }
+
+        this.handle = handle;
+        this.type = type;
+        this.copied = true;
+    }
+
+    /**
+     * Gets the type of the packet.
+     *
+     * @return the packet type
+     */
+    public @NotNull PacketType getType() {
+        return type;
+    }
+
     /**
      * Gets the stage of the packet.
+     * <p>
+     * For intercepted packets, this is the stage the connection was in, tracked by the interceptor,
+     * which is also known for packet classes whose names carry no stage.
      *
      * @return the packet stage
      */
@@ -105,7 +205,7 @@ public class Packet {
      * @return the packet direction
      */
     public @NotNull PacketDirection getDirection() {
-        return direction;
+        return type.getDirection();
     }
 
     /**
@@ -114,7 +214,7 @@ public class Packet {
      * @return the packet simple name
      */
     public @NotNull String getName() {
-        return name;
+        return type.getName();
     }
 
     /**
@@ -123,7 +223,7 @@ public class Packet {
      * @return the packet full name
      */
     public @NotNull String getFullName() {
-        return handle.getClass().getSimpleName();
+        return type.getFullName();
     }
 
     /**
@@ -133,11 +233,12 @@ public class Packet {
      * @return all declared fields of the wrapped packet class
      */
     public @NotNull Field[] getFields() {
-        return FieldUtils.getAllFieldsList(handle.getClass())
-                .stream()
-                .filter(field -> !Modifier.isStatic(field.getModifiers()))
-                .peek(field -> field.setAccessible(true))
-                .toArray(Field[]::new);
+        Class<?> clazz = handle.getClass();
+        Field[] fields = new Field[Reflection.getAccessorCount(clazz)];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = Reflection.getAccessor(clazz, i).getField();
+        }
+        return fields;
     }
 
     /**
@@ -149,7 +250,7 @@ public class Packet {
      * @throws IndexOutOfBoundsException if the position is out of range
      */
     public @NotNull Field getField(@Range(from = 0, to = Integer.MAX_VALUE) int position) throws IndexOutOfBoundsException {
-        return this.getFields()[position];
+        return Reflection.getAccessor(handle.getClass(), position).getField();
     }
 
     /**
@@ -172,14 +273,15 @@ public class Packet {
     public <T> @NotNull T getFieldValue(@Range(from = 0, to = Integer.MAX_VALUE) int position) throws IllegalArgumentException, IndexOutOfBoundsException {
         try {
             //noinspection unchecked
-            return (T) this.getField(position).get(handle);
-        } catch (ReflectiveOperationException e) {
+            return (T) Reflection.getAccessor(handle.getClass(), position).get(handle);
+        } catch (IllegalArgumentException e) {
             throw new IllegalArgumentException("Cannot get value at position " + position, e);
         }
     }
 
     /**
      * Sets the value of the field at the specified position in the wrapped packet object.
+     * A copy-on-write wrapper copies the packet object first, see {@link Packet#getMutableHandle()}.
      * <p>
      * Fields are scanned in declaration order, excluding static fields.
      * The position starts from {@code 0}.
@@ -197,8 +299,9 @@ public class Packet {
      */
     public <T> void setFieldValue(@Range(from = 0, to = Integer.MAX_VALUE) int position, T value) throws IllegalArgumentException, IndexOutOfBoundsException {
         try {
-            this.getField(position).set(handle, value);
-        } catch (ReflectiveOperationException e) {
+            Object handle = getMutableHandle();
+            Reflection.getAccessor(handle.getClass(), position).set(handle, value);
+        } catch (IllegalArgumentException e) {
             throw new IllegalArgumentException("Cannot set value at position " + position, e);
         }
     }
@@ -226,14 +329,15 @@ public class Packet {
     public <T> @NotNull T getFieldValueOfType(@NotNull Class<T> type, @Range(from = 0, to = Integer.MAX_VALUE) int position) throws IllegalArgumentException, IndexOutOfBoundsException {
         try {
             //noinspection unchecked
-            return (T) Reflection.findFields(handle.getClass(), type)[position].get(handle);
-        } catch (ReflectiveOperationException e) {
+            return (T) Reflection.findAccessor(handle.getClass(), type, position).get(handle);
+        } catch (IllegalArgumentException e) {
             throw new IllegalArgumentException("Cannot get value at position " + position, e);
         }
     }
 
     /**
      * Sets the value of the {@code position}-th field whose type exactly matches {@code type} in the wrapped packet object.
+     * A copy-on-write wrapper copies the packet object first, see {@link Packet#getMutableHandle()}.
      * <p>
      * Fields are scanned in declaration order, excluding static fields.
      * Only fields whose declared type is exactly equal to {@code type} are considered.
@@ -254,8 +358,9 @@ public class Packet {
      */
     public <T> void setFieldValueOfType(@NotNull Class<T> type, @Range(from = 0, to = Integer.MAX_VALUE) int position, T value) throws IllegalArgumentException, IndexOutOfBoundsException {
         try {
-            Reflection.findFields(handle.getClass(), type)[position].set(handle, value);
-        } catch (ReflectiveOperationException e) {
+            Object handle = getMutableHandle();
+            Reflection.findAccessor(handle.getClass(), type, position).set(handle, value);
+        } catch (IllegalArgumentException e) {
             throw new IllegalArgumentException("Cannot set value at position " + position, e);
         }
     }
@@ -287,9 +392,9 @@ public class Packet {
                 "%s{handle=%s, stage=%s, direction=%s, name=%s}",
                 this.getClass().getSimpleName(),
                 this.getFullName(),
-                this.stage,
-                this.direction,
-                this.name
+                this.getStage(),
+                this.getDirection(),
+                this.getName()
         );
     }
 }
@@ -32,10 +32,16 @@ public enum PacketStage {
      * Occurs when the client requests server information (e.g., during a server list ping).
      */
     QUERY("Status"),
+    /**
+     * The configuration stage, since 1.20.2.
+     * Occurs between the login and the play stage, and again whenever the server reconfigures the client during gameplay.
+     */
+    CONFIGURATION("Configuration"),
     /**
      * An unknown or unspecified stage.
      * Used when the packet class does not explicitly indicate its stage,
      * such as in newer Spigot mappings where class names no longer contain stage information.
+     * Intercepted packets are stamped with the stage of their connection instead, see {@link Packet#getStage()}.
      */
     UNKNOWN("");
 
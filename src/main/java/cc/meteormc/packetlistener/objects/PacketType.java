@@ -0,0 +1,305 @@
+package cc.meteormc.packetlistener.objects;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.regex.Matcher;
+
+/**
+ * The metadata of a packet class, resolved only once per class.
+ * <p>
+ * Every packet class is assigned a compact numeric id in the order it is first seen,
+ * which makes it suitable as an index into arrays on hot paths.
+ *
+ * @author Meteor23333
+ */
+public final class PacketType {
+    private static final int LOGIN_START = 1;
+    private static final int LOGIN_SUCCESS = 1 << 1;
+    private static final int SET_COMPRESSION = 1 << 2;
+
+    private final int id;
+    private final PacketStage stage;
+    private final PacketDirection direction;
+    private final String name;
+    private final String fullName;
+    private final int flags;
+    private final PacketStage nextStage;
+
+    /**
+     * Whether the server has the configuration stage, in which case the login ends with the client acknowledging it.
+     */
+    private static final boolean CONFIGURATION_STAGE = exists("net.minecraft.network.protocol.login.ServerboundLoginAcknowledgedPacket");
+
+    /**
+     * Marks classes that are known not to be packets.
+     */
+    private static final PacketType NOT_A_PACKET = new PacketType(-1, PacketStage.UNKNOWN, PacketDirection.SERVERBOUND, "", "");
+
+    private static final Object LOCK = new Object();
+    private static final Map<Class<?>, PacketType> BY_CLASS = new WeakHashMap<>();
+    private static final List<PacketType> BY_ID = new ArrayList<>();
+    private static final ClassValue<PacketType> CACHE = new ClassValue<PacketType>() {
+        @Override
+        protected PacketType computeValue(Class<?> type) {
+            synchronized (LOCK) {
+                // ClassValue may compute the same class more than once when racing, keep the ids unique.
+                return BY_CLASS.computeIfAbsent(type, PacketType::resolve);
+            }
+        }
+    };
+
+    /**
+     * Creates a {@link PacketType}.
+     *
+     * @param id the numeric id
+     * @param stage the packet stage
+     * @param direction the packet direction
+     * @param name the packet simple name
+     * @param fullName the packet class simple name
+     */
+    private PacketType(int id, PacketStage stage, PacketDirection direction, String name, String fullName) {
+        this.id = id;
+        this.stage = stage;
+        this.direction = direction;
+        this.name = name;
+        this.fullName = fullName;
+        this.flags = flags(stage, direction, name);
+        this.nextStage = nextStage(direction, name);
+    }
+
+    /**
+     * Computes the flags of the packets the interceptor handles specially, so it does not compare names per packet.
+     *
+     * @param stage the packet stage
+     * @param direction the packet direction
+     * @param name the packet simple name
+     * @return the flags
+     */
+    private static int flags(PacketStage stage, PacketDirection direction, String name) {
+        int flags = 0;
+        if (direction == PacketDirection.SERVERBOUND && stage == PacketStage.LOGIN && "Start".equalsIgnoreCase(name)) {
+            flags |= LOGIN_START;
+        }
+        if (direction == PacketDirection.CLIENTBOUND && ("Success".equals(name) || "GameProfile".equals(name) || "LoginFinished".equals(name))) {
+            flags |= LOGIN_SUCCESS;
+        }
+        if (direction == PacketDirection.CLIENTBOUND && ("SetCompression".equals(name) || "LoginCompression".equals(name))) {
+            flags |= SET_COMPRESSION;
+        }
+        return flags;
+    }
+
+    /**
+     * Gets the stage a connection switches to once a packet has been handled, where the packet ends a stage.
+     * <p>
+     * Transitions are observed from the packets the client sends, as the server switches its inbound protocol upon them.
+     * The handshake is handled by the raw interceptor, which reads the requested stage from the frame.
+     *
+     * @param direction the packet direction
+     * @param name the packet simple name
+     * @return the next stage, or {@code null} if the packet does not end a stage
+     */
+    private static @Nullable PacketStage nextStage(PacketDirection direction, String name) {
+        if (direction == PacketDirection.CLIENTBOUND) {
+            // Before the configuration stage, the login success is the last packet of the login.
+            boolean loginSuccess = "Success".equals(name) || "GameProfile".equals(name) || "LoginFinished".equals(name);
+            return loginSuccess && !CONFIGURATION_STAGE ? PacketStage.PLAY : null;
+        }
+        switch (name) {
+            case "LoginAcknowledged":
+            case "ConfigurationAcknowledged":
+                return PacketStage.CONFIGURATION;
+            case "FinishConfiguration":
+                return PacketStage.PLAY;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Checks whether a class exists on the server, without initializing it.
+     *
+     * @param name the binary name of the class
+     * @return true if the class exists
+     */
+    private static boolean exists(@NotNull String name) {
+        try {
+            Class.forName(name, false, PacketType.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the type of the given packet class.
+     * <p>
+     * The result is computed on the first call and cached, so subsequent calls only cost a lookup.
+     *
+     * @param clazz the class of the original packet object
+     * @return the packet type, or {@code null} if the class is not a packet
+     */
+    public static @Nullable PacketType of(@NotNull Class<?> clazz) {
+        PacketType type = CACHE.get(clazz);
+        return type == NOT_A_PACKET ? null : type;
+    }
+
+    /**
+     * Gets the type with the given numeric id.
+     *
+     * @param id the numeric id
+     * @return the packet type, or {@code null} if no type has been assigned the id yet
+     */
+    public static @Nullable PacketType getById(int id) {
+        synchronized (LOCK) {
+            return id >= 0 && id < BY_ID.size() ? BY_ID.get(id) : null;
+        }
+    }
+
+    /**
+     * Gets all packet types seen so far, ordered by their numeric id.
+     *
+     * @return an unmodifiable snapshot of the known packet types
+     */
+    public static @NotNull List<PacketType> values() {
+        synchronized (LOCK) {
+            return Collections.unmodifiableList(new ArrayList<>(BY_ID));
+        }
+    }
+
+    /**
+     * Resolves the type of a class and registers it. Must be called while holding {@link PacketType#LOCK}.
+     *
+     * @param clazz the class to resolve
+     * @return the packet type, or {@link PacketType#NOT_A_PACKET}
+     */
+    private static @NotNull PacketType resolve(@NotNull Class<?> clazz) {
+        Package pkg = clazz.getPackage();
+        if (pkg == null || !pkg.getName().startsWith("net.minecraft")) return NOT_A_PACKET;
+
+        String className = clazz.getSimpleName();
+        PacketStage stage;
+        PacketDirection direction;
+        String name;
+
+        Matcher matcher = Packet.PACKET_PATTERN.matcher(className);
+        Matcher legacyMatcher = Packet.LEGACY_PACKET_PATTERN.matcher(className);
+        if (matcher.matches()) {
+            stage = PacketStage.UNKNOWN;
+            direction = PacketDirection.getBySpigotName(matcher.group(1));
+            name = matcher.group(2);
+        } else if (legacyMatcher.matches()) {
+            stage = PacketStage.getBySpigotName(legacyMatcher.group(1));
+            direction = PacketDirection.getBySpigotName(legacyMatcher.group(2));
+            name = legacyMatcher.group(3);
+        } else {
+            return NOT_A_PACKET;
+        }
+
+        PacketType type = new PacketType(BY_ID.size(), stage, direction, name, className);
+        BY_ID.add(type);
+        return type;
+    }
+
+    /**
+     * Gets the numeric id of the packet type.
+     * <p>
+     * Ids are assigned at runtime in the order the classes are first seen,
+     * they are not protocol packet ids and are not stable across restarts.
+     *
+     * @return the numeric id
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Gets the stage of the packet type.
+     *
+     * @return the packet stage
+     */
+    public @NotNull PacketStage getStage() {
+        return stage;
+    }
+
+    /**
+     * Gets the direction of the packet type.
+     *
+     * @return the packet direction
+     */
+    public @NotNull PacketDirection getDirection() {
+        return direction;
+    }
+
+    /**
+     * Gets the simple name of the packet type.
+     *
+     * @return the packet simple name
+     */
+    public @NotNull String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the class simple name of the packet type.
+     *
+     * @return the packet full name
+     */
+    public @NotNull String getFullName() {
+        return fullName;
+    }
+
+    /**
+     * Checks whether this is the packet the client starts the login with, carrying its profile.
+     *
+     * @return true if this is the login start packet
+     */
+    public boolean isLoginStart() {
+        return (flags & LOGIN_START) != 0;
+    }
+
+    /**
+     * Checks whether this is the packet the server completes the login with, after which the client leaves the login stage.
+     *
+     * @return true if this is the login success packet
+     */
+    public boolean isLoginSuccess() {
+        return (flags & LOGIN_SUCCESS) != 0;
+    }
+
+    /**
+     * Gets the stage the connection switches to once this packet has been handled.
+     *
+     * @return the next stage, or {@code null} if this packet does not end a stage
+     */
+    public @Nullable PacketStage getNextStage() {
+        return nextStage;
+    }
+
+    /**
+     * Checks whether this is the packet enabling compression on the connection.
+     *
+     * @return true if this is the set compression packet
+     */
+    public boolean isSetCompression() {
+        return (flags & SET_COMPRESSION) != 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s{id=%d, stage=%s, direction=%s, name=%s}",
+                this.getClass().getSimpleName(),
+                this.id,
+                this.stage,
+                this.direction,
+                this.name
+        );
+    }
+}
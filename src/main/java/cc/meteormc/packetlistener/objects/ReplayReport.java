@@ -0,0 +1,107 @@
+package cc.meteormc.packetlistener.objects;
+
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of a capture replay.
+ *
+ * @author Meteor23333
+ */
+public final class ReplayReport {
+    private final int connections;
+    private final long packets;
+    private final long failed;
+    private final long elapsedNanos;
+    private final long maxLagNanos;
+
+    /**
+     * Creates a {@link ReplayReport}.
+     *
+     * @param connections the number of replayed connections
+     * @param packets the number of replayed packets
+     * @param failed the number of packets whose replay threw an exception
+     * @param elapsedNanos the duration of the replay in nanoseconds
+     * @param maxLagNanos the longest delay behind the schedule in nanoseconds
+     */
+    @ApiStatus.Internal
+    public ReplayReport(int connections, long packets, long failed, long elapsedNanos, long maxLagNanos) {
+        this.connections = connections;
+        this.packets = packets;
+        this.failed = failed;
+        this.elapsedNanos = elapsedNanos;
+        this.maxLagNanos = maxLagNanos;
+    }
+
+    /**
+     * Gets the number of replayed connections.
+     *
+     * @return the number of connections
+     */
+    public int getConnections() {
+        return connections;
+    }
+
+    /**
+     * Gets the number of replayed packets, including the failed ones.
+     *
+     * @return the number of packets
+     */
+    public long getPackets() {
+        return packets;
+    }
+
+    /**
+     * Gets the number of packets whose replay threw an exception, in the decoder or in a listener.
+     *
+     * @return the number of failed packets
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * Gets the duration of the replay.
+     *
+     * @return the duration in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Gets the longest delay behind the schedule of the capture.
+     * <p>
+     * When replaying at a fixed speed, a growing lag means the pipeline could not keep up with the traffic.
+     * Always {@code 0} when replaying as fast as possible.
+     *
+     * @return the lag in nanoseconds
+     */
+    public long getMaxLagNanos() {
+        return maxLagNanos;
+    }
+
+    /**
+     * Gets the replay throughput.
+     *
+     * @return the number of packets per second
+     */
+    public double getPacketsPerSecond() {
+        return elapsedNanos == 0 ? 0 : packets * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s{connections=%d, packets=%d, failed=%d, elapsed=%.1f ms, maxLag=%.1f ms, rate=%.0f/s}",
+                this.getClass().getSimpleName(),
+                this.connections,
+                this.packets,
+                this.failed,
+                this.elapsedNanos / 1e6,
+                this.maxLagNanos / 1e6,
+                this.getPacketsPerSecond()
+        );
+    }
+}
@@ -0,0 +1,147 @@
+package cc.meteormc.packetlistener.objects;
+
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * A point-in-time copy of the traffic counters of a connection or of the whole server.
+ * <p>
+ * Packets are counted per {@link PacketType} when they reach the interceptor.
+ * Bytes are the sizes of the serialized packets next to the codec, that is after decompression and before compression,
+ * so they are attributed to the packet type as well. The byte totals also include frames that were never decoded,
+ * such as packets rejected by the packet id filter.
+ *
+ * @author Meteor23333
+ */
+public final class TrafficSnapshot {
+    private final long[][] packets;
+    private final long[][] bytes;
+    private final long[] totalBytes;
+
+    /**
+     * Creates a {@link TrafficSnapshot}. The arrays are indexed by {@link PacketDirection#ordinal()}, then by {@link PacketType#getId()}.
+     *
+     * @param packets the packet counts
+     * @param bytes the byte counts
+     * @param totalBytes the byte totals
+     */
+    @ApiStatus.Internal
+    public TrafficSnapshot(long[][] packets, long[][] bytes, long[] totalBytes) {
+        this.packets = packets;
+        this.bytes = bytes;
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * Gets the number of packets in a direction.
+     *
+     * @param direction the direction
+     * @return the number of packets
+     */
+    public long getPackets(@NotNull PacketDirection direction) {
+        long sum = 0;
+        for (long count : packets[direction.ordinal()]) {
+            sum += count;
+        }
+        return sum;
+    }
+
+    /**
+     * Gets the number of packets of a type.
+     *
+     * @param type the packet type
+     * @return the number of packets
+     */
+    public long getPackets(@NotNull PacketType type) {
+        return get(packets, type);
+    }
+
+    /**
+     * Gets the number of bytes in a direction.
+     *
+     * @param direction the direction
+     * @return the number of bytes
+     */
+    public long getBytes(@NotNull PacketDirection direction) {
+        return totalBytes[direction.ordinal()];
+    }
+
+    /**
+     * Gets the number of bytes of the packets of a type.
+     *
+     * @param type the packet type
+     * @return the number of bytes
+     */
+    public long getBytes(@NotNull PacketType type) {
+        return get(bytes, type);
+    }
+
+    /**
+     * Gets the number of packets per type in a direction, the largest first.
+     *
+     * @param direction the direction
+     * @return the packet types that were seen, mapped to their number of packets
+     */
+    public @NotNull Map<PacketType, Long> getPacketsByType(@NotNull PacketDirection direction) {
+        return sorted(packets[direction.ordinal()]);
+    }
+
+    /**
+     * Gets the number of bytes per type in a direction, the largest first.
+     *
+     * @param direction the direction
+     * @return the packet types that were seen, mapped to their number of bytes
+     */
+    public @NotNull Map<PacketType, Long> getBytesByType(@NotNull PacketDirection direction) {
+        return sorted(bytes[direction.ordinal()]);
+    }
+
+    /**
+     * Reads the counter of a packet type.
+     *
+     * @param counters the counters
+     * @param type the packet type
+     * @return the count
+     */
+    private static long get(long[][] counters, @NotNull PacketType type) {
+        long[] values = counters[type.getDirection().ordinal()];
+        return type.getId() < values.length ? values[type.getId()] : 0;
+    }
+
+    /**
+     * Maps the non-zero counters to their packet types, sorted by count in descending order.
+     *
+     * @param counters the counters of one direction
+     * @return the sorted map
+     */
+    private static @NotNull Map<PacketType, Long> sorted(long[] counters) {
+        List<Map.Entry<PacketType, Long>> entries = new ArrayList<>();
+        for (int id = 0; id < counters.length; id++) {
+            PacketType type = PacketType.getById(id);
+            if (type != null && counters[id] != 0) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(type, counters[id]));
+            }
+        }
+        entries.sort(Map.Entry.<PacketType, Long>comparingByValue().reversed());
+
+        Map<PacketType, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<PacketType, Long> entry : entries) {
+            result.put(entry.getKey(), entry.getValue());
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s{inboundPackets=%d, inboundBytes=%d, outboundPackets=%d, outboundBytes=%d}",
+                getClass().getSimpleName(),
+                getPackets(PacketDirection.SERVERBOUND),
+                getBytes(PacketDirection.SERVERBOUND),
+                getPackets(PacketDirection.CLIENTBOUND),
+                getBytes(PacketDirection.CLIENTBOUND)
+        );
+    }
+}